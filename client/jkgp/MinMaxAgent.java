@@ -1,18 +1,50 @@
 import info.kwarc.kalah.Agent;
+import info.kwarc.kalah.EndgameDatabase;
 import info.kwarc.kalah.KalahState;
-import info.kwarc.kalah.KalahState.GameResult;
-import info.kwarc.kalah.KalahState.Player;
+import info.kwarc.kalah.LazySmpSearch;
+import info.kwarc.kalah.OpeningBook;
 import info.kwarc.kalah.ProtocolManager;
+import info.kwarc.kalah.SearchEngine;
+import info.kwarc.kalah.SearchListener;
+import info.kwarc.kalah.TranspositionTable;
+import info.kwarc.kalah.YbwcSearch;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 
-// agent using min max search
+// agent using min max search, pruned by alpha-beta
 class MinMaxAgent extends Agent {
 
-    private final int level; // search depth
+    // how the search is spread over several threads
+    enum Parallelism {
+        LAZY_SMP, // threads search the same tree on their own, sharing results (see LazySmpSearch)
+        YBWC // threads split the tree between them (see YbwcSearch)
+    }
+
+    private final int level; // maximum search depth
+    private final TranspositionTable tt; // results of earlier searches, kept from move to move and game to game
+    private final LazySmpSearch smp; // null unless searching with LAZY_SMP
+    private final YbwcSearch ybwc; // null unless searching with YBWC
+    private final SearchEngine.Driver driver;
+    private final Path endgames; // directory of the endgame databases, null for none
+    private EndgameDatabase endgame; // of the board size of the last search, null if there is none
+    private int endgameBoardSize; // board size endgame has been looked up for, 0 before the first search
+    private final OpeningBook book; // null for none
+
+    public MinMaxAgent(String host, Integer port, ProtocolManager.ConnectionType conType, int level)
+            throws IOException {
+        this(host, port, conType, level, 0, Parallelism.LAZY_SMP, SearchEngine.Driver.ASPIRATION, null, null);
+    }
 
-    public MinMaxAgent(String host, Integer port, ProtocolManager.ConnectionType conType, int level) {
+    // helpers: number of threads searching in addition to the agent thread
+    // driver: how each iteration of the iterative deepening searches the root
+    // endgames: directory of the files endgame-N.db for N houses, see EndgameDatabase.main(), null for none
+    // bookFile: opening book, see OpeningBook.main(), null for none, opened right away so a bad file fails here
+    public MinMaxAgent(String host, Integer port, ProtocolManager.ConnectionType conType, int level,
+                       int helpers, Parallelism parallelism, SearchEngine.Driver driver, Path endgames,
+                       Path bookFile) throws IOException {
 
         // TODO enter your data
         super(
@@ -27,6 +59,20 @@ class MinMaxAgent extends Agent {
         );
 
         this.level = level;
+        this.tt = new TranspositionTable(64 << 20); // 64 MiB
+        if (parallelism == Parallelism.YBWC) {
+            this.smp = null;
+            this.ybwc = new YbwcSearch(this::shouldStop, helpers + 1);
+            this.ybwc.setTranspositionTable(tt);
+            this.ybwc.setDriver(driver);
+        } else {
+            this.smp = new LazySmpSearch(this::shouldStop, tt, helpers);
+            this.smp.setDriver(driver);
+            this.ybwc = null;
+        }
+        this.driver = driver;
+        this.endgames = endgames;
+        this.book = bookFile != null ? OpeningBook.open(bookFile) : null;
     }
 
     @Override
@@ -36,101 +82,56 @@ class MinMaxAgent extends Agent {
         
         submitMove(ks.randomLegalMove());
 
-        // iterative deepening
-        for (int max_depth = 1; max_depth <= level; max_depth++) {
-
-            Integer eval = searchHelper(0, max_depth, ks);
-
-            if (eval == null) {
-                break; // search has been aborted
-            } else if (eval == Integer.MAX_VALUE || eval == Integer.MIN_VALUE + 1) {
-                break; // successive searches would get the same result -> yield
-            }
-        }
-    }
-
-    // Returns score from the player to move's point of view or null if it was aborted
-    private Integer searchHelper(int depth, int max_depth, KalahState ks) throws IOException {
-
-        // should search be aborted?
-        if (shouldStop()) {
-            return null;
+        // moves of the book are played at once, returning yields the rest of the time
+        long record = book != null ? book.probe(ks) : 0;
+        if (record != 0) {
+            submitMove(OpeningBook.move(record));
+            sendComment("Best move: " + (OpeningBook.move(record) + 1) + "\n" +
+                    "Eval: " + OpeningBook.score(record) + " (book)\n" +
+                    "Depth: " + OpeningBook.depth(record));
+            return;
         }
 
-        // Is game over/the result determined (more than half of all seeds in one store)?
-        GameResult result = ks.result();
-        if (result != GameResult.UNDECIDED) {
-            // Just terminate here, we already sent a legal move
-            if (result == GameResult.KNOWN_WIN ||
-                    result == GameResult.WIN) {
-                return Integer.MAX_VALUE;
-            } else if (result == GameResult.KNOWN_LOSS ||
-                    result == GameResult.LOSS) {
-                return Integer.MIN_VALUE + 1;
+        // endgame positions are looked up, once per board size whether there is a database or not
+        if (endgames != null && ks.getBoardSize() != endgameBoardSize) {
+            Path file = endgames.resolve("endgame-" + ks.getBoardSize() + ".db");
+            endgame = Files.exists(file) ? EndgameDatabase.open(file) : null;
+            endgameBoardSize = ks.getBoardSize();
+            if (ybwc != null) {
+                ybwc.setEndgameDatabase(endgame);
             } else {
-                return 0;
+                smp.setEndgameDatabase(endgame);
             }
-        } else {
-            // reached max. depth but the position is non-terminal?
-            if (depth == max_depth) {
-                // evaluate
-                return ks.getStoreLead();
-            } else {
-                // Otherwise continue recursively
-
-                // Keep track of the best move and it's eval
-                Integer best_move = null;
-                Integer best_eval = null;
-
-                // check all moves
-                for (Integer move : ks.getMoves()) {
-                    // copy the state to make the move, undoing moves in Kalah is annoying
-                    KalahState copy = new KalahState(ks);
-
-                    // Execute the move while keeping track of whether there's a change of turns
-                    Player before = copy.getSideToMove();
-
-                    copy.doMove(move);
-
-                    Integer eval = searchHelper(depth + 1, max_depth, copy);
-
-                    // should_stop() returned true --> abort search immediately
-                    if (eval == null) {
-                        return null;
-                    }
-
-                    // Other player's turn? Change sign of eval
-                    if (before != copy.getSideToMove()) {
-                        eval = -eval;
-                    }
-
-                    // Better eval than best so far? Make a note of that!
-                    if (best_eval == null || eval > best_eval) {
-                        best_eval = eval;
-                        best_move = move;
-                    }
-                }
+        }
 
-                // Root call? Tell the server about the move and comment about it
-                if (depth == 0) {
+        SearchEngine engine = ybwc != null ? ybwc : smp.getMainEngine();
+        SearchListener listener = (depth, eval, best_move) -> {
 
-                    // mandatory
-                    submitMove(best_move);
+            // mandatory
+            submitMove(best_move);
 
-                    String comment = "Best move: " + (best_move + 1) + "\n" +
-                            "Eval: " + best_eval + "\n" +
-                            "Depth: " + max_depth;
+            // a proven eval is the final store difference
+            String comment = "Best move: " + (best_move + 1) + "\n" +
+                    "Eval: " + eval + (engine.isProven() ? " (proven)" : "") + "\n" +
+                    "Depth: " + depth;
+            if (driver == SearchEngine.Driver.MTDF) {
+                comment += "\nMTD(f) passes: " + engine.getMtdfPasses();
+            }
 
-                    // optional
-                    sendComment(comment);
-                }
+            // optional
+            sendComment(comment);
+        };
 
-                return best_eval;
-            }
+        // iterative deepening with alpha-beta search, stops as soon as the server tells us to
+        if (ybwc != null) {
+            tt.newSearch();
+            ybwc.iterate(ks, 1, level, listener);
+        } else {
+            smp.search(ks, level, listener);
         }
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
         while (true) {
 
@@ -138,7 +139,12 @@ class MinMaxAgent extends Agent {
                     "kalah.kwarc.info/socket",
                     null,
                     ProtocolManager.ConnectionType.WebSocketSecure,
-                    5);
+                    20,
+                    Runtime.getRuntime().availableProcessors() - 1,
+                    Parallelism.LAZY_SMP,
+                    SearchEngine.Driver.ASPIRATION,
+                    null, // no endgame databases
+                    null); // no opening book
 
             try {
                 agent.run();
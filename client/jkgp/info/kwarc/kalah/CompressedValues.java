@@ -0,0 +1,320 @@
+package info.kwarc.kalah;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Values of an EndgameDatabase in a compressed file, for databases which don't fit into memory.
+ * The values are split into blocks of a fixed number of positions, each one compressed separately with a
+ * Huffman code. Positions of consecutive indices differ in the seeds of the last houses only, so their values
+ * are close: a block stores the difference of every value to the one before, which is mostly small, and
+ * the few small differences get short codes. All blocks share one code, built from the frequencies of the
+ * differences in the whole database. With 6 houses, this takes 2.6 bits per position instead of 8.
+ * <p>
+ * The file holds the header of EndgameDatabase, the lengths of the codes of the 256 values, the offset of every
+ * block and the blocks. The blocks are memory-mapped, the offsets are read into memory, so a block is found
+ * without searching. Decompressed blocks are kept in a cache of bounded size, which keeps the ones used last.
+ * The cache is set-associative: a block can only be kept in the few places of its set, so looking it up only
+ * compares a few block numbers.
+ */
+final class CompressedValues {
+
+    // header: magic, version, board size, seeds, bits of the number of positions per block
+    static final long MAGIC = 0x4B616C616845445AL; // "KalahEDZ"
+    private static final int VERSION = 1;
+    private static final int BLOCK_BITS_OFFSET = 20;
+    private static final int LENGTHS_BYTES = 256;
+
+    // codes are decoded by looking up their first bits, which limits their length
+    private static final int MAX_CODE_LENGTH = 16;
+
+    // blocks per set of the cache
+    private static final int WAYS = 8;
+
+    // approximate memory of a set of the cache besides the values of its blocks: the set, its arrays and
+    // the headers of the arrays of the blocks
+    private static final int SET_BYTES = 256 + WAYS * 16;
+
+    private final int blockBits;
+    private final long positions;
+    private final long[] offsets; // of the blocks in the file, one more for the end of the last block
+    private final MappedByteBuffer[] segments;
+    private final char[] decoding; // the first MAX_CODE_LENGTH bits of a code -> length << 8 | difference
+    private final CacheSet[] cache;
+
+    // a set of the cache, blocks are replaced when unused for the longest time
+    private static final class CacheSet {
+        final long[] blocks = new long[WAYS];
+        final byte[][] values = new byte[WAYS][];
+        final long[] used = new long[WAYS];
+        long clock;
+
+        CacheSet() {
+            Arrays.fill(blocks, -1);
+        }
+    }
+
+    private CompressedValues(int blockBits, long positions, long[] offsets, MappedByteBuffer[] segments,
+                             byte[] lengths, long cacheBytes) {
+        this.blockBits = blockBits;
+        this.positions = positions;
+        this.offsets = offsets;
+        this.segments = segments;
+
+        decoding = new char[1 << MAX_CODE_LENGTH];
+        int[] codes = canonicalCodes(lengths);
+        for (int value = 0; value < 256; value++) {
+            int free = MAX_CODE_LENGTH - lengths[value];
+            if (lengths[value] > 0) {
+                Arrays.fill(decoding, codes[value] << free, (codes[value] + 1) << free,
+                        (char) (lengths[value] << 8 | value));
+            }
+        }
+
+        // no more sets than needed to hold all blocks of the file
+        long sets = cacheBytes / (SET_BYTES + ((long) WAYS << blockBits));
+        sets = Math.min(sets, (offsets.length - 1 + WAYS - 1) / WAYS);
+        cache = new CacheSet[Integer.highestOneBit((int) Math.max(1, Math.min(sets, 1 << 24)))];
+        for (int i = 0; i < cache.length; i++) {
+            cache[i] = new CacheSet();
+        }
+    }
+
+    /**
+     * Reads the values of a compressed file.
+     * @param channel The file.
+     * @param header The header of the file.
+     * @param positions Number of positions in the database.
+     * @param cacheBytes Memory for decompressed blocks.
+     * @throws IOException If the file can't be read or is truncated.
+     */
+    static CompressedValues open(FileChannel channel, ByteBuffer header, long positions, long cacheBytes)
+            throws IOException {
+        if (header.getInt(8) != VERSION) {
+            throw new IOException("Compressed endgame database isn't of version " + VERSION);
+        }
+        int blockBits = header.getInt(BLOCK_BITS_OFFSET);
+        int blocks = (int) ((positions + (1L << blockBits) - 1) >>> blockBits);
+
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTHS_BYTES + 8 * (blocks + 1)).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining() && channel.read(buffer, EndgameDatabase.HEADER_BYTES + buffer.position()) > 0) {
+            // read it all
+        }
+        if (buffer.hasRemaining()) {
+            throw new IOException("Compressed endgame database is truncated");
+        }
+        byte[] lengths = new byte[LENGTHS_BYTES];
+        buffer.flip();
+        buffer.get(lengths);
+        long[] offsets = new long[blocks + 1];
+        buffer.asLongBuffer().get(offsets);
+        if (offsets[blocks] != channel.size()) {
+            throw new IOException("Compressed endgame database is truncated");
+        }
+
+        return new CompressedValues(blockBits, positions, offsets,
+                EndgameDatabase.map(channel, FileChannel.MapMode.READ_ONLY, channel.size()), lengths, cacheBytes);
+    }
+
+    /**
+     * Returns the value of the position of the given index, decompressing its block if it isn't in the cache.
+     * @param index Index of the position, see SeedDistributions.index().
+     */
+    byte get(long index) {
+        long block = index >>> blockBits;
+        int position = (int) (index & ((1 << blockBits) - 1));
+        CacheSet set = cache[(int) (block & (cache.length - 1))];
+        synchronized (set) {
+            for (int way = 0; way < WAYS; way++) {
+                if (set.blocks[way] == block) {
+                    set.used[way] = ++set.clock;
+                    return set.values[way][position];
+                }
+            }
+        }
+
+        // other threads may use the set in the meantime, at worst they decode the same block
+        byte[] values = decode(block);
+        synchronized (set) {
+            int oldest = 0;
+            for (int way = 0; way < WAYS; way++) {
+                if (set.blocks[way] == block) {
+                    oldest = way;
+                    break;
+                }
+                if (set.used[way] < set.used[oldest]) {
+                    oldest = way;
+                }
+            }
+            set.blocks[oldest] = block;
+            set.values[oldest] = values;
+            set.used[oldest] = ++set.clock;
+        }
+        return values[position];
+    }
+
+    private byte[] decode(long block) {
+        byte[] values = new byte[(int) Math.min(1L << blockBits, positions - (block << blockBits))];
+        long position = offsets[(int) block];
+        long end = offsets[(int) block + 1];
+        long bits = 0; // the next bits of the block, first bit on top
+        int available = 0;
+        byte value = 0;
+        for (int i = 0; i < values.length; i++) {
+            while (available <= 56 && position < end) {
+                bits |= (EndgameDatabase.get(segments, position++) & 0xFFL) << (56 - available);
+                available += 8;
+            }
+            char entry = decoding[(int) (bits >>> (64 - MAX_CODE_LENGTH))];
+            value += (byte) entry;
+            values[i] = value;
+            bits <<= entry >>> 8;
+            available -= entry >>> 8;
+        }
+        return values;
+    }
+
+    /**
+     * Writes the values of a database into a compressed file.
+     * @param db The database.
+     * @param file The file to write, replaced if it exists.
+     * @param blockBits Bits of the number of positions per block.
+     * @throws IOException If the file can't be written.
+     */
+    static void write(EndgameDatabase db, Path file, int blockBits) throws IOException {
+        long positions = db.getPositions();
+        long[] frequencies = new long[256];
+        for (long index = 0; index < positions; index++) {
+            frequencies[difference(db, index, blockBits)]++;
+        }
+        byte[] lengths = codeLengths(frequencies);
+        int[] codes = canonicalCodes(lengths);
+
+        int blocks = (int) ((positions + (1L << blockBits) - 1) >>> blockBits);
+        long[] offsets = new long[blocks + 1];
+        long start = EndgameDatabase.HEADER_BYTES + LENGTHS_BYTES + 8L * (blocks + 1);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // the blocks first
+            channel.position(start);
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            long written = start;
+            for (int block = 0; block < blocks; block++) {
+                offsets[block] = written;
+                long bits = 0;
+                int pending = 0;
+                long end = Math.min(positions, (long) (block + 1) << blockBits);
+                for (long index = (long) block << blockBits; index < end; index++) {
+                    int difference = difference(db, index, blockBits);
+                    bits = bits << lengths[difference] | codes[difference];
+                    pending += lengths[difference];
+                    for (; pending >= 8; pending -= 8) {
+                        out.write((int) (bits >>> (pending - 8)));
+                        written++;
+                    }
+                }
+                if (pending > 0) {
+                    out.write((int) (bits << (8 - pending)));
+                    written++;
+                }
+            }
+            offsets[blocks] = written;
+            out.flush();
+
+            // the header last, a file without it isn't complete
+            ByteBuffer buffer = ByteBuffer.allocate((int) start).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putLong(0, MAGIC);
+            buffer.putInt(8, VERSION);
+            buffer.putInt(12, db.getBoardSize());
+            buffer.putInt(16, db.getMaxSeeds());
+            buffer.putInt(BLOCK_BITS_OFFSET, blockBits);
+            buffer.position(EndgameDatabase.HEADER_BYTES);
+            buffer.put(lengths);
+            buffer.asLongBuffer().put(offsets);
+            buffer.position(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, buffer.position());
+            }
+            channel.force(true);
+        }
+    }
+
+    // difference of the value of a position to the one before in its block, as stored
+    private static int difference(EndgameDatabase db, long index, int blockBits) {
+        boolean first = (index & ((1L << blockBits) - 1)) == 0;
+        return (db.value(index) - (first ? 0 : db.value(index - 1))) & 0xFF;
+    }
+
+    // lengths of the Huffman codes of values with the given frequencies, at most MAX_CODE_LENGTH
+    private static byte[] codeLengths(long[] frequencies) {
+        long[] weights = new long[2 * 256];
+        int[] parents = new int[2 * 256];
+        byte[] lengths = new byte[256];
+        System.arraycopy(frequencies, 0, weights, 0, 256);
+        while (true) {
+            // the two lightest trees are merged until one is left
+            PriorityQueue<Integer> trees = new PriorityQueue<>(256, (a, b) -> Long.compare(weights[a], weights[b]));
+            for (int value = 0; value < 256; value++) {
+                if (weights[value] > 0) {
+                    trees.add(value);
+                }
+            }
+            int next = 256;
+            while (trees.size() > 1) {
+                int a = trees.poll();
+                int b = trees.poll();
+                weights[next] = weights[a] + weights[b];
+                parents[a] = next;
+                parents[b] = next;
+                trees.add(next++);
+            }
+            int root = trees.isEmpty() ? -1 : trees.peek();
+
+            int longest = 0;
+            for (int value = 0; value < 256; value++) {
+                int length = 0;
+                if (weights[value] > 0) {
+                    length = 1; // a single value still needs a bit
+                    for (int node = value; node != root && parents[node] != root; node = parents[node]) {
+                        length++;
+                    }
+                }
+                lengths[value] = (byte) length;
+                longest = Math.max(longest, length);
+            }
+            if (longest <= MAX_CODE_LENGTH) {
+                return lengths;
+            }
+
+            // flatter frequencies give shorter codes for rare values
+            for (int value = 0; value < 256; value++) {
+                weights[value] = weights[value] == 0 ? 0 : Math.max(1, weights[value] >>> 1);
+            }
+        }
+    }
+
+    // canonical codes of the given lengths: shorter codes first, then by value
+    private static int[] canonicalCodes(byte[] lengths) {
+        int[] codes = new int[256];
+        int code = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            for (int value = 0; value < 256; value++) {
+                if (lengths[value] == length) {
+                    codes[value] = code++;
+                }
+            }
+            code <<= 1;
+        }
+        return codes;
+    }
+}
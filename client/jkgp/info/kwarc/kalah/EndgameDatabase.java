@@ -0,0 +1,474 @@
+package info.kwarc.kalah;
+
+import info.kwarc.kalah.KalahState.Player;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Perfect play for all positions with at most a given number of seeds in the houses, of one board size.
+ * Seeds in the stores never change the best moves, so the database stores a value for every distribution of
+ * the seeds over the houses: the number of seeds the player to move gains over the other player until the end
+ * of the game. The final difference between the stores is the store lead plus this value, which also tells
+ * whether the player to move wins, draws or loses.
+ * <p>
+ * Values are computed by working backwards from the end of the game, layer by layer of seeds in the houses.
+ * Seeds never leave a store, so a move leads to a layer with fewer seeds or, if it doesn't reach the store,
+ * to the same layer. Such moves carry seeds towards the own store, so they never lead back to a position of
+ * the layer and the positions of a layer can be solved from the ones they lead to.
+ * A layer is solved in parallel chunks on a ForkJoinPool. Chunks may need the same positions of the layer,
+ * but every thread computes the same value for them, so they don't need to synchronize.
+ * <p>
+ * The file holds a header and one byte per position, layer after layer, and is memory-mapped for probing,
+ * so only the pages actually used occupy memory. Positions are indexed by SeedDistributions.index(),
+ * without any hashing. The file is mapped in segments of 1 GiB, as a single mapping can't exceed 2 GiB.
+ * <p>
+ * During generation, values not computed yet are marked as unknown and the header counts the layers done.
+ * Mapped pages are written back regularly, so a generation that crashed or was stopped resumes where it was:
+ * completed layers are kept and so are the values of the layer in progress already written back.
+ * <p>
+ * Databases too large for the memory of the agent can be compressed, see compress() and CompressedValues.
+ * open() reads both kinds of files, probing a compressed file decompresses at most one block of values.
+ */
+public final class EndgameDatabase {
+
+    /** Returned by probe() for positions not in the database. */
+    public static final int NOT_FOUND = Integer.MIN_VALUE;
+
+    /** Greatest number of seeds in the houses a database can cover, values have to fit into a byte. */
+    public static final int MAX_SEEDS = 127;
+
+    /** Memory for decompressed blocks of compressed files used by open(Path). */
+    public static final long DEFAULT_CACHE_BYTES = 32 << 20;
+
+    /** Bits of the number of positions per block of compressed files used by compress(Path). */
+    public static final int DEFAULT_BLOCK_BITS = 10;
+
+    // header: magic, version, board size, seeds, layers initialized and solved so far, then the values
+    private static final long MAGIC = 0x4B616C6168454442L; // "KalahEDB"
+    private static final int VERSION = 2;
+    static final int HEADER_BYTES = 32;
+    private static final int BOARD_SIZE_OFFSET = 12, SEEDS_OFFSET = 16, INITIALIZED_OFFSET = 20, SOLVED_OFFSET = 24;
+
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    // value of positions not solved yet during generation
+    private static final byte UNKNOWN = Byte.MIN_VALUE;
+
+    // positions solved in one go by a thread of the generation, and seconds between progress reports and checkpoints
+    private static final int CHUNK = 1 << 16;
+    private static final int PROGRESS_SECONDS = 10;
+    private static final int CHECKPOINT_SECONDS = 60;
+
+    private final int boardSize;
+    private final int maxSeeds;
+    private final MappedByteBuffer[] segments; // the file, SEGMENT_BITS bytes each, null if compressed
+    private final CompressedValues compressed; // null if not compressed
+    private final SeedDistributions distributions;
+
+    private EndgameDatabase(int boardSize, int maxSeeds, MappedByteBuffer[] segments) {
+        this.boardSize = boardSize;
+        this.maxSeeds = maxSeeds;
+        this.segments = segments;
+        this.compressed = null;
+        this.distributions = new SeedDistributions(boardSize, maxSeeds);
+    }
+
+    private EndgameDatabase(int boardSize, int maxSeeds, CompressedValues compressed) {
+        this.boardSize = boardSize;
+        this.maxSeeds = maxSeeds;
+        this.segments = null;
+        this.compressed = compressed;
+        this.distributions = new SeedDistributions(boardSize, maxSeeds);
+    }
+
+    // size of the file
+    private long fileSize() {
+        return HEADER_BYTES + distributions.offset(maxSeeds + 1);
+    }
+
+    // maps the file in segments
+    static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+        MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+        for (int i = 0; i < segments.length; i++) {
+            long position = (long) i << SEGMENT_BITS;
+            segments[i] = channel.map(mode, position, Math.min(size - position, 1L << SEGMENT_BITS));
+        }
+        segments[0].order(ByteOrder.LITTLE_ENDIAN);
+        return segments;
+    }
+
+    // reads the header, returns null if the file isn't a database
+    private static ByteBuffer header(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        if (channel.size() < HEADER_BYTES) {
+            return null;
+        }
+        channel.read(header, 0);
+        return header.getLong(0) == MAGIC && header.getInt(8) == VERSION ? header : null;
+    }
+
+    /**
+     * Opens a database file for probing, see open(Path, long), with DEFAULT_CACHE_BYTES for decompressed blocks.
+     * @param file The file written by generate() or compress().
+     * @return The database.
+     * @throws IOException If the file can't be read, isn't a database or its generation hasn't completed.
+     */
+    public static EndgameDatabase open(Path file) throws IOException {
+        return open(file, DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * Opens a database file for probing, mapping it into memory read-only.
+     * @param file The file written by generate() or compress().
+     * @param cacheBytes Memory for decompressed blocks if the file is compressed.
+     * @return The database.
+     * @throws IOException If the file can't be read, isn't a database or its generation hasn't completed.
+     */
+    public static EndgameDatabase open(Path file, long cacheBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() >= HEADER_BYTES && channel.read(header, 0) == HEADER_BYTES &&
+                    header.getLong(0) == CompressedValues.MAGIC) {
+                int boardSize = header.getInt(BOARD_SIZE_OFFSET);
+                int maxSeeds = header.getInt(SEEDS_OFFSET);
+                long positions = new SeedDistributions(boardSize, maxSeeds).offset(maxSeeds + 1);
+                return new EndgameDatabase(boardSize, maxSeeds,
+                        CompressedValues.open(channel, header, positions, cacheBytes));
+            }
+
+            header = header(channel);
+            if (header == null) {
+                throw new IOException(file + " isn't an endgame database of version " + VERSION);
+            }
+            int maxSeeds = header.getInt(SEEDS_OFFSET);
+            if (header.getInt(SOLVED_OFFSET) != maxSeeds + 1) {
+                throw new IOException(file + " is incomplete, generate it again to resume");
+            }
+            EndgameDatabase db = new EndgameDatabase(header.getInt(BOARD_SIZE_OFFSET), maxSeeds,
+                    map(channel, FileChannel.MapMode.READ_ONLY, channel.size()));
+            if (db.fileSize() != channel.size()) {
+                throw new IOException(file + " is truncated");
+            }
+            return db;
+        }
+    }
+
+    /** Returns the number of houses per player of the positions in the database. */
+    public int getBoardSize() {
+        return boardSize;
+    }
+
+    /** Returns the greatest number of seeds in the houses of the positions in the database. */
+    public int getMaxSeeds() {
+        return maxSeeds;
+    }
+
+    /**
+     * Returns the final difference between the stores from the point of view of the player to move,
+     * if both players play perfectly.
+     * @param ks The board to look up.
+     * @return The score, NOT_FOUND if the board has another size or too many seeds in the houses.
+     * The player to move wins if it is positive, loses if it is negative and the game is a draw if it is 0.
+     */
+    public int probe(KalahState ks) {
+        int value = value(ks);
+        return value == NOT_FOUND ? NOT_FOUND : ks.getStoreLead() + value;
+    }
+
+    /**
+     * Returns the number of seeds the player to move gains over the other player until the end of the game
+     * if both players play perfectly, NOT_FOUND if the board isn't in the database.
+     * @param ks The board to look up.
+     */
+    int value(KalahState ks) {
+        int seeds = ks.getHouseSum();
+        if (ks.getBoardSize() != boardSize || seeds > maxSeeds) {
+            return NOT_FOUND;
+        }
+        return value(distributions.index(ks));
+    }
+
+    /**
+     * Returns the value of the position of the given index, see value(KalahState).
+     * @param index Index of the position, see SeedDistributions.index().
+     */
+    byte value(long index) {
+        return compressed != null ? compressed.get(index) : get(HEADER_BYTES + index);
+    }
+
+    /** Returns the number of positions in the database. */
+    long getPositions() {
+        return distributions.offset(maxSeeds + 1);
+    }
+
+    private byte get(long position) {
+        return get(segments, position);
+    }
+
+    // reads a byte of a file mapped by map()
+    static byte get(MappedByteBuffer[] segments, long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK));
+    }
+
+    private void put(long position, byte value) {
+        segments[(int) (position >>> SEGMENT_BITS)].put((int) (position & SEGMENT_MASK), value);
+    }
+
+    // writes the mapped pages back to the file
+    private void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Computes the database for the given board size on all processors and writes it to a file,
+     * see generate(int, int, Path, int).
+     * @param boardSize Number of houses per player.
+     * @param maxSeeds Greatest number of seeds in the houses, at most MAX_SEEDS.
+     * @param file The file to write.
+     * @throws IOException If the file can't be written or the generation has been interrupted.
+     */
+    public static void generate(int boardSize, int maxSeeds, Path file) throws IOException {
+        generate(boardSize, maxSeeds, file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Computes the database for the given board size and writes it to a file, reporting the progress on
+     * System.out. If the file holds an incomplete generation of the same database, the generation resumes,
+     * otherwise the file is replaced.
+     * @param boardSize Number of houses per player.
+     * @param maxSeeds Greatest number of seeds in the houses, at most MAX_SEEDS.
+     * @param file The file to write.
+     * @param threads Number of threads computing the values.
+     * @throws IOException If the file can't be written or the generation has been interrupted.
+     */
+    public static void generate(int boardSize, int maxSeeds, Path file, int threads) throws IOException {
+        if (maxSeeds < 0 || maxSeeds > MAX_SEEDS) {
+            throw new IllegalArgumentException("Seeds " + maxSeeds + " not between 0 and " + MAX_SEEDS);
+        }
+        long size = new EndgameDatabase(boardSize, maxSeeds, (MappedByteBuffer[]) null).fileSize();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer old = header(channel);
+            boolean resume = old != null && channel.size() == size &&
+                    old.getInt(BOARD_SIZE_OFFSET) == boardSize && old.getInt(SEEDS_OFFSET) == maxSeeds;
+            if (!resume) {
+                channel.truncate(0);
+            }
+
+            EndgameDatabase db = new EndgameDatabase(boardSize, maxSeeds,
+                    map(channel, FileChannel.MapMode.READ_WRITE, size));
+            MappedByteBuffer header = db.segments[0];
+            if (resume) {
+                System.out.printf("Resuming with %d seeds%n", header.getInt(SOLVED_OFFSET));
+            } else {
+                header.putLong(0, MAGIC);
+                header.putInt(8, VERSION);
+                header.putInt(BOARD_SIZE_OFFSET, boardSize);
+                header.putInt(SEEDS_OFFSET, maxSeeds);
+                header.putInt(INITIALIZED_OFFSET, 0);
+                header.putInt(SOLVED_OFFSET, 0);
+                header.force();
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                for (int seeds = header.getInt(SOLVED_OFFSET); seeds <= maxSeeds; seeds++) {
+                    // the values of a layer are marked unknown before its generation starts, only once
+                    if (header.getInt(INITIALIZED_OFFSET) <= seeds) {
+                        long first = HEADER_BYTES + db.distributions.offset(seeds);
+                        for (long i = 0; i < db.distributions.size(seeds); i++) {
+                            db.put(first + i, UNKNOWN);
+                        }
+                        db.force();
+                        header.putInt(INITIALIZED_OFFSET, seeds + 1);
+                        header.force();
+                    }
+
+                    db.solveLayer(pool, seeds);
+
+                    db.force();
+                    header.putInt(SOLVED_OFFSET, seeds + 1);
+                    header.force();
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    // solves a layer on the pool, reporting the progress and writing back the values regularly
+    private void solveLayer(ForkJoinPool pool, int seeds) throws IOException {
+        long positions = distributions.size(seeds);
+        LongAdder done = new LongAdder();
+        ForkJoinTask<?> task = pool.submit(new Solve(seeds, 0, positions, done));
+
+        long start = System.nanoTime();
+        long checkpoint = start;
+        while (true) {
+            try {
+                task.get(PROGRESS_SECONDS, TimeUnit.SECONDS);
+                break;
+            } catch (TimeoutException e) {
+                long now = System.nanoTime();
+                System.out.printf("%2d seeds: %5.1f%% %,14.0f positions/s%n",
+                        seeds, 100.0 * done.sum() / positions, done.sum() / ((now - start) / 1e9));
+                if (now - checkpoint > TimeUnit.SECONDS.toNanos(CHECKPOINT_SECONDS)) {
+                    force();
+                    checkpoint = now;
+                }
+            } catch (InterruptedException e) {
+                task.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Generation interrupted, generate again to resume");
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Generation failed", e.getCause());
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%2d seeds: %,14d positions %8.3f s %,14.0f positions/s%n",
+                seeds, positions, seconds, positions / seconds);
+    }
+
+    // solves a range of ranks of a layer, split in chunks
+    private final class Solve extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int seeds;
+        private final long from, to;
+        private final LongAdder done;
+
+        Solve(int seeds, long from, long to, LongAdder done) {
+            this.seeds = seeds;
+            this.from = from;
+            this.to = to;
+            this.done = done;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK) {
+                long middle = (from + to) >>> 1;
+                invokeAll(new Solve(seeds, from, middle, done), new Solve(seeds, middle, to, done));
+            } else {
+                Generator generator = new Generator();
+                for (long rank = from; rank < to; rank++) {
+                    generator.solve(seeds, rank);
+                }
+                done.add(to - from);
+            }
+        }
+    }
+
+    // solves positions on a board of its own
+    private final class Generator {
+        private final KalahState board = new KalahState(boardSize, 0);
+
+        void solve(int seeds, long rank) {
+            distributions.unrank(rank, seeds, board);
+            board.setStoreSouth(0);
+            board.setStoreNorth(0);
+            solve();
+        }
+
+        // value of the position on the board, solving it and the positions of its layer it leads to if needed
+        private int solve() {
+            int seeds = board.getHouseSum();
+            long index = HEADER_BYTES + distributions.index(board);
+            int value = get(index);
+            if (value != UNKNOWN) {
+                return value;
+            }
+
+            Player player = board.getSideToMove();
+            int own = player == Player.SOUTH ? board.getHouseSumSouth() : board.getHouseSumNorth();
+            if (own == 0) {
+                // game over, the other player gets the seeds in their houses
+                value = -seeds;
+            } else {
+                value = -MAX_SEEDS;
+                int lead = board.getStoreLead();
+                for (int move = 0; move < boardSize; move++) {
+                    if (!board.isLegalMove(move)) {
+                        continue;
+                    }
+                    long undo = board.doMove(move);
+                    int score = board.getSideToMove() == player ?
+                            board.getStoreLead() - lead + solve() :
+                            -board.getStoreLead() - lead - solve();
+                    board.undoMove(undo);
+                    value = Math.max(value, score);
+                }
+            }
+            put(index, (byte) value);
+            return value;
+        }
+    }
+
+    /**
+     * Writes the database into a compressed file, see compress(Path, int), with DEFAULT_BLOCK_BITS.
+     * @param file The file to write, replaced if it exists.
+     * @throws IOException If the file can't be written.
+     */
+    public void compress(Path file) throws IOException {
+        compress(file, DEFAULT_BLOCK_BITS);
+    }
+
+    /**
+     * Writes the database into a compressed file, which open() reads like the file written by generate().
+     * Larger blocks compress a little better, but take longer to decompress when probing a position.
+     * @param file The file to write, replaced if it exists.
+     * @param blockBits Bits of the number of positions per block, between 0 and 30.
+     * @throws IOException If the file can't be written.
+     */
+    public void compress(Path file, int blockBits) throws IOException {
+        if (blockBits < 0 || blockBits > 30) {
+            throw new IllegalArgumentException("Block bits " + blockBits + " not between 0 and 30");
+        }
+        CompressedValues.write(this, file, blockBits);
+    }
+
+    /**
+     * Generates a database.
+     * Arguments (all optional): houses (default 6), seeds in the houses (default 16),
+     * file (default endgame-HOUSES.db), number of threads (default: number of processors).
+     * Run it again with the same arguments to resume an interrupted generation.
+     * <p>
+     * With the arguments compress, a database file, the compressed file to write and optionally the bits of
+     * the number of positions per block (default DEFAULT_BLOCK_BITS), compresses a database instead.
+     * Replace the file of the agent by the compressed one to use it.
+     * @param args Command line arguments.
+     * @throws IOException If the file can't be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("compress")) {
+            int blockBits = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_BLOCK_BITS;
+            open(Paths.get(args[1])).compress(Paths.get(args[2]), blockBits);
+            return;
+        }
+        int boardSize = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        int maxSeeds = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        Path file = Paths.get(args.length > 2 ? args[2] : "endgame-" + boardSize + ".db");
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        generate(boardSize, maxSeeds, file, threads);
+    }
+}
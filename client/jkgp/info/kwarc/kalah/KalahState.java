@@ -12,11 +12,30 @@ import java.util.Arrays;
  */
 public class KalahState {
 
-    // arrays are sowed in the direction of increasing indices
-    private int[] housesSouth, housesNorth;
-    private int storeSouth, storeNorth;
+    // Houses and stores of both players in a single ring of 2N+2 pits, sowed in the direction of increasing indices:
+    // N houses of one player, their store, N houses of the other player, their store.
+    // The ring is indexed relative to the player to move, their first house is ring[offset] and the houses
+    // of the other player start at ring[otherOffset()]. Since offset is either 0 or N+1, neither the
+    // houses nor the stores of a player ever wrap around the end of the array.
+    // Flipping the board only changes the player to move, the ring stays the same.
+    private int[] ring;
+    private int offset;
     private Player playerToMove;
 
+    // outcome of sowing from each house, shared by all boards of the same size
+    private final SowingTable sowing;
+
+    // Zobrist key of the position, kept up to date by every modification of the ring, see zobristKey()
+    private long key;
+
+    // sums of the houses starting at ring[0] and ring[N+1] and of all pits,
+    // kept up to date by every modification of the ring
+    private int houseSumLow, houseSumHigh, total;
+
+    // houses swept by cleanUpOneSidedHouses() during doMove(), needed by undoMove()
+    private int[] sweepStack;
+    private int sweepTop;
+
     /**
      * Creates a board of @param board_size pits with @param seeds each.
      * @param board_size Number of southern pits.
@@ -24,13 +43,18 @@ public class KalahState {
      */
     // create a new board of size h with seeds seeds everywhere and south to move
     public KalahState(int board_size, int seeds) {
-        storeSouth = 0;
-        storeNorth = 0;
-        housesSouth = new int[board_size];
-        Arrays.fill(housesSouth, seeds);
-        housesNorth = new int[board_size];
-        Arrays.fill(housesNorth, seeds);
+        ring = new int[2 * board_size + 2];
+        sowing = SowingTable.forBoardSize(board_size);
+        Arrays.fill(ring, seeds);
+        ring[board_size] = 0;
+        ring[2 * board_size + 1] = 0;
+        offset = 0;
         playerToMove = Player.SOUTH;
+        sweepStack = new int[0];
+        key = computeZobristKey();
+        houseSumLow = board_size * seeds;
+        houseSumHigh = board_size * seeds;
+        total = 2 * board_size * seeds;
     }
 
     /**
@@ -38,26 +62,25 @@ public class KalahState {
      * @param state The board to copy.
      */
     public KalahState(KalahState state) {
-        storeSouth = state.storeSouth;
-        storeNorth = state.storeNorth;
-        housesSouth = Arrays.copyOf(state.housesSouth, state.housesSouth.length);
-        housesNorth = Arrays.copyOf(state.housesNorth, state.housesNorth.length);
+        ring = Arrays.copyOf(state.ring, state.ring.length);
+        sowing = state.sowing;
+        offset = state.offset;
         playerToMove = state.playerToMove;
+        key = state.key;
+        houseSumLow = state.houseSumLow;
+        houseSumHigh = state.houseSumHigh;
+        total = state.total;
+        sweepStack = new int[0];
     }
 
     /**
      * Mirrors the board e.g. flips stores, houses and side to move.
      */
     public void flip() {
-        int tmp = storeSouth;
-        storeSouth = storeNorth;
-        storeNorth = tmp;
-
-        int[] tmp2 = housesSouth;
-        housesSouth = housesNorth;
-        housesNorth = tmp2;
-
+        // the houses of the player to move stay the houses of the player to move
         playerToMove = playerToMove.other();
+        // but all pits change their number in the key
+        key = computeZobristKey();
     }
 
     /**
@@ -85,18 +108,51 @@ public class KalahState {
         return false;
     }
 
+    // index of the first house of the player not to move
+    private int otherOffset() {
+        return offset == 0 ? getBoardSize() + 1 : 0;
+    }
+
+    // index of the first house of the given player
+    private int offsetOf(Player player) {
+        return player == playerToMove ? offset : otherOffset();
+    }
+
+    // sets the number of seeds in the pit at the given index of the ring, keeping key and sums up to date
+    private void put(int index, int seeds) {
+        int pit = index - offsetOf(Player.SOUTH);
+        if (pit < 0) {
+            pit += ring.length;
+        }
+        key ^= Zobrist.pit(pit, ring[index]) ^ Zobrist.pit(pit, seeds);
+
+        int delta = seeds - ring[index];
+        int n = getBoardSize();
+        if (index < n) {
+            houseSumLow += delta;
+        } else if (index > n && index < ring.length - 1) {
+            houseSumHigh += delta;
+        }
+        total += delta;
+
+        ring[index] = seeds;
+    }
+
+    // changes the player to move without touching the ring
+    private void changeTurn() {
+        playerToMove = playerToMove.other();
+        offset = otherOffset();
+        key ^= Zobrist.NORTH_TO_MOVE;
+    }
+
     /**
      * Return whether the given move is legal.
      * @param move Move to check for legality.
      */
 
     public boolean isLegalMove(int move) {
-        assert move >= 0 && move < housesSouth.length;
-        if (playerToMove == Player.SOUTH) {
-            return housesSouth[move] != 0;
-        } else {
-            return housesNorth[move] != 0;
-        }
+        assert move >= 0 && move < getBoardSize();
+        return ring[offset + move] != 0;
     }
 
     /**
@@ -105,64 +161,84 @@ public class KalahState {
      * Useful if you need any legal move.
      */
     public int lowestLegalMove() {
-        boolean wasFlipped = flipIfNorthToMove();
-
-        int llm = -1;
         for (int i = 0; i < getBoardSize(); i++) {
-            if (housesSouth[i] != 0) {
-                llm = i;
-                break;
+            if (ring[offset + i] != 0) {
+                return i;
             }
         }
-
-        flipIfWasFlipped(wasFlipped);
-        return llm;
+        return -1;
     }
 
     /**
      * Returns a random legal move. Moves are indexed from 0 to N-1 in sowing direction.
      */
     public int randomLegalMove() {
-        boolean wasFlipped = flipIfNorthToMove();
-
-        ArrayList<Integer> moves = getMoves();
-        int randomIndex = (int) (Math.random() * moves.size());
-        int chosenMove = moves.get(randomIndex);
-
-        flipIfWasFlipped(wasFlipped);
-        return chosenMove;
+        int k = (int) (Math.random() * numberOfMoves());
+        for (int i = 0; i < getBoardSize(); i++) {
+            if (ring[offset + i] != 0 && k-- == 0) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /** Returns the number of legal moves. */
     public int numberOfMoves() {
-        boolean wasFlipped = flipIfNorthToMove();
-
         int c = 0;
         for (int i = 0; i < getBoardSize(); i++) {
-            if (housesSouth[i] != 0) {
+            if (ring[offset + i] != 0) {
                 c++;
             }
         }
-
-        flipIfWasFlipped(wasFlipped);
         return c;
     }
 
     /** Returns an ArrayList containing the legal moves in sowing direction
      * Moves are indexed from 0 to N-1 (in sowing direction).
+     * Note that getMoves(MoveList) and legalMoveMask() don't allocate.
      */
     public ArrayList<Integer> getMoves() {
-        boolean wasFlipped = flipIfNorthToMove();
+        ArrayList<Integer> moves = new ArrayList<>(getBoardSize());
+        for (int i = 0; i < getBoardSize(); i++) {
+            if (ring[offset + i] != 0) {
+                moves.add(i);
+            }
+        }
+        return moves;
+    }
 
-        ArrayList<Integer> moves = new ArrayList<>(numberOfMoves());
+    /**
+     * Replaces the content of the given list with the legal moves in sowing direction.
+     * Moves are indexed from 0 to N-1 (in sowing direction).
+     * @param moves The list to fill, its capacity has to be at least N.
+     * @return The number of legal moves.
+     */
+    public int getMoves(MoveList moves) {
+        moves.clear();
         for (int i = 0; i < getBoardSize(); i++) {
-            if (housesSouth[i] != 0) {
+            if (ring[offset + i] != 0) {
                 moves.add(i);
             }
         }
+        return moves.size();
+    }
 
-        flipIfWasFlipped(wasFlipped);
-        return moves;
+    /**
+     * Returns the legal moves as a bitmask, bit i is set iff move i is legal.
+     * Moves are indexed from 0 to N-1 in sowing direction.
+     * Only available for boards with at most 64 houses per player.
+     */
+    public long legalMoveMask() {
+        if (getBoardSize() > 64) {
+            throw new IllegalStateException("Move masks are limited to 64 houses, board has " + getBoardSize());
+        }
+        long mask = 0;
+        for (int i = 0; i < getBoardSize(); i++) {
+            if (ring[offset + i] != 0) {
+                mask |= 1L << i;
+            }
+        }
+        return mask;
     }
 
     /**
@@ -170,10 +246,7 @@ public class KalahState {
      * @param move The move to check. Moves are indexed from 0 to N-1 in sowing direction.
      */
     public boolean isDoubleMove(int move) {
-        boolean wasFlipped = flipIfNorthToMove();
-        int endsUp = (move + housesSouth[move]) % (2 * getBoardSize() + 1);
-        flipIfWasFlipped(wasFlipped);
-        return endsUp == getBoardSize();
+        return (sowing.entry(move, ring[offset + move]) & SowingTable.EXTRA_TURN) != 0;
     }
 
     /**
@@ -181,151 +254,197 @@ public class KalahState {
      * @param move The move to check. Moves are indexed from 0 to N-1 in sowing direction.
      */
     public boolean isCaptureMove(int move) {
-        boolean wasFlipped = flipIfNorthToMove();
+        return capturedSeeds(move) != 0;
+    }
 
-        int m = move;
-        int s = getBoardSize();
+    /**
+     * Returns the number of seeds the move would move into the store by capturing,
+     * e.g. the seeds of the opposite house plus the capturing seed, or 0 if the move isn't a capture.
+     * @param move The move to check. Moves are indexed from 0 to N-1 in sowing direction.
+     */
+    public int capturedSeeds(int move) {
+        int entry = sowing.entry(move, ring[offset + move]);
 
-        if (housesSouth[m] > 2*s+1) {
-            flipIfWasFlipped(wasFlipped);
-            return false;
-        } else if (housesSouth[m] == 2*s+1) { // last seed in starting pit
-            flipIfWasFlipped(wasFlipped);
-            return true;
+        if ((entry & SowingTable.CAPTURE_CANDIDATE) == 0) {
+            // last seed not in an own house or more than one lap around the board
+            return 0;
         }
 
-        // now we know that we haven't played around the entire board
-
         // index of pit the last seed will end up in
-        // (imagining that the indices would continue in sowing direction after the last southern house)
-        int endsUp = (m + housesSouth[move]) % (2 * s + 1);
-
-        // capture move must drop last seed in southern pit
-        if (endsUp >= s) {
-            flipIfWasFlipped(wasFlipped);
-            return false;
-        }
+        int endsUp = SowingTable.landing(entry);
 
         // how many stones in the pit opposite to where the last seed is dropped?
-        int op = housesNorth[s - 1 - endsUp];
+        int op = ring[otherOffset() + getBoardSize() - 1 - endsUp];
 
         // did we add a seed to that pit before capturing it?
-        if (m + housesSouth[m] >= s) {
+        if ((entry & SowingTable.PASSES_OPPOSITE) != 0) {
             op++;
         }
 
-        boolean b;
-
-        b = housesSouth[endsUp] == 0 && op != 0;
-
-        flipIfWasFlipped(wasFlipped);
-
-        return b;
+        if ((entry & SowingTable.CAPTURE_SURE) != 0) { // last seed in starting pit
+            return op + 1;
+        }
+        return ring[offset + endsUp] == 0 && op != 0 ? op + 1 : 0;
     }
 
     /**
      * Executes the given move by modifying the board.
      * Note that there is a constructor for copying from an existing board.
+     * The returned undo record can be passed to undoMove() to take the move back again,
+     * moves have to be undone in reverse order.
      * @param move The move to execute. Moves are indexed from 0 to N-1 in sowing direction.
+     * @return The undo record of the move.
      */
-    public void doMove(int move) {
-        boolean wasFlipped = flipIfNorthToMove();
+    public long doMove(int move) {
+        assert isLegalMove(move);
 
-        // sow the seeds
+        int n = getBoardSize();
+        int other = otherOffset();
 
         // grab the seeds
-        int hand = housesSouth[move];
-        housesSouth[move] = 0;
-        int pos = move;
-        boolean sowSouth = true;
-
-        // sow until done
-        while (hand != 0) {
-            // pos < ... --> houses
-            // pos = ... --> store
-            // pos > ... --> switch to other side
-
-            pos++;
-            hand--;
-
-            // skip northern store
-            if (sowSouth && pos > getBoardSize()) {
-                pos = 0;
-                sowSouth = false;
-            } else if (!sowSouth && pos > getBoardSize() - 1) {
-                pos = 0;
-                sowSouth = true;
-            }
+        int seeds = ring[offset + move];
+        put(offset + move, 0);
 
-            if (sowSouth) {
-                if (pos < getBoardSize()) {
-                    housesSouth[pos]++;
-                } else if (pos == getBoardSize()) {
-                    storeSouth++;
-                }
-            } else {
-                if (pos < getBoardSize()) {
-                    housesNorth[pos]++;
-                }
-            }
+        sow(move, seeds, 1);
+
+        // index of pit the last seed ended up in, relative to the player to move
+        int endsUp = SowingTable.landing(sowing.entry(move, seeds));
+        int pos = relativeIndex(endsUp);
+
+        // handle captures
+        // last seed in own house and seeds in opponents house
+        int captured = 0;
+        if (endsUp < n && ring[pos] == 1 && ring[other + n - 1 - endsUp] != 0) {
+            captured = ring[other + n - 1 - endsUp];
+            put(offset + n, ring[offset + n] + ring[pos] + captured);
+            put(pos, 0);
+            put(other + n - 1 - endsUp, 0);
         }
 
+        // handle one side being empty
+        int swept = sweepOneSidedHouses();
+
         // handle turn
-        if (pos != getBoardSize()) // last seed in store?
-        {
-            playerToMove = Player.NORTH;
+        boolean turnChanged = endsUp != n; // last seed in store?
+        if (turnChanged) {
+            changeTurn();
         }
 
-        // handle captures
+        return UndoRecord.encode(move, seeds, captured, turnChanged, swept);
+    }
 
-        // get corresponding northern house
-        int cnh = getBoardSize() - 1 - pos;
-        // last seed in southern house and seeds in opponents house
+    /**
+     * Takes back a move executed by doMove(), restoring houses, stores and side to move exactly.
+     * Moves have to be undone in reverse order.
+     * @param undo The undo record returned by doMove().
+     */
+    public void undoMove(long undo) {
+        // side to move while the move was executed
+        if (UndoRecord.turnChanged(undo)) {
+            changeTurn();
+        }
 
-        if (sowSouth && pos < getBoardSize() && housesSouth[pos] == 1 && housesNorth[cnh] != 0) {
-            storeSouth += housesSouth[pos];
-            housesSouth[pos] = 0;
-            storeSouth += housesNorth[cnh];
-            housesNorth[cnh] = 0;
+        int n = getBoardSize();
+        int other = otherOffset();
+
+        // give the swept seeds back to the houses
+        int swept = UndoRecord.swept(undo);
+        if (swept != UndoRecord.NOT_SWEPT) {
+            int start = swept == UndoRecord.SWEPT_OWN ? offset : other;
+            sweepTop -= n;
+            int sum = 0;
+            for (int i = 0; i < n; i++) {
+                put(start + i, sweepStack[sweepTop + i]);
+                sum += ring[start + i];
+            }
+            put(start + n, ring[start + n] - sum);
         }
 
-        // handle one side being empty
-        cleanUpOneSidedHouses();
+        int move = UndoRecord.move(undo);
+        int seeds = UndoRecord.seeds(undo);
+
+        // index of pit the last seed ended up in
+        int endsUp = SowingTable.landing(sowing.entry(move, seeds));
+
+        // give the captured seeds back
+        int captured = UndoRecord.captured(undo);
+        if (captured != 0) {
+            put(offset + n, ring[offset + n] - captured - 1);
+            put(offset + endsUp, 1);
+            put(other + n - 1 - endsUp, captured);
+        }
+
+        // pick the sowed seeds up again
+        sow(move, seeds, -1);
+        put(offset + move, seeds);
+    }
+
+    // Adds (sign = 1) or removes (sign = -1) the seeds sowed from the given house, which has to be empty.
+    // The seeds are sowed into the 2N+1 pits following the house, skipping the store of the other player.
+    // Instead of sowing seed by seed, full laps around the board are added to every pit at once,
+    // so the cost doesn't depend on the number of seeds.
+    private void sow(int move, int seeds, int sign) {
+        int cycle = 2 * getBoardSize() + 1;
+        int laps = seeds / cycle;
+        int rest = seeds % cycle;
+
+        if (laps == 0) {
+            // only the pits reached by the rest
+            for (int i = 1; i <= rest; i++) {
+                int r = move + i;
+                if (r >= cycle) {
+                    r -= cycle;
+                }
+                int index = relativeIndex(r);
+                put(index, ring[index] + sign);
+            }
+        } else {
+            // every pit, the rest reaches the first ones after the house
+            for (int i = 1; i <= cycle; i++) {
+                int r = move + i;
+                if (r >= cycle) {
+                    r -= cycle;
+                }
+                int index = relativeIndex(r);
+                put(index, ring[index] + sign * (i <= rest ? laps + 1 : laps));
+            }
+        }
+    }
 
-        flipIfWasFlipped(wasFlipped);
+    // index in the ring of the pit with the given index relative to the player to move, from 0 to 2N+1
+    private int relativeIndex(int r) {
+        int index = offset + r;
+        return index >= ring.length ? index - ring.length : index;
     }
 
      /** Returns the sum of all seeds, from both stores and all houses. */
     public int totalSeeds() {
-        return storeSouth + storeNorth + getHouseSumSouth() + getHouseSumNorth();
+        return total;
     }
 
     /** Returns the GameResult from the player to move's perspective. */
     public GameResult result() {
-        boolean wasFlipped = flipIfNorthToMove();
-
-        GameResult r;
+        int n = getBoardSize();
+        int own = ring[offset + n];
+        int opp = ring[otherOffset() + n];
 
-        if (getHouseSumSouth() == 0) // game over
+        if (houseSum(offset) == 0) // game over
         {
-            if (storeSouth > storeNorth)
-                r = GameResult.WIN;
-            else if (storeSouth == storeNorth)
-                r = GameResult.DRAW;
+            if (own > opp)
+                return GameResult.WIN;
+            else if (own == opp)
+                return GameResult.DRAW;
             else
-                r = GameResult.LOSS;
+                return GameResult.LOSS;
         } else // not game over
         {
-            if (storeSouth > totalSeeds() / 2) // south is going to win no matter what
-                r = GameResult.KNOWN_WIN;
-            else if (storeNorth > totalSeeds() / 2) // north is going to win no matter what
-                r = GameResult.KNOWN_LOSS;
+            if (own > totalSeeds() / 2) // player to move is going to win no matter what
+                return GameResult.KNOWN_WIN;
+            else if (opp > totalSeeds() / 2) // other player is going to win no matter what
+                return GameResult.KNOWN_LOSS;
             else
-                r = GameResult.UNDECIDED;
+                return GameResult.UNDECIDED;
         }
-
-        flipIfWasFlipped(wasFlipped);
-        return r;
     }
 
     /**
@@ -334,34 +453,65 @@ public class KalahState {
      * and the remaining seeds in northern houses are moved to the northern store.
      */
     public void cleanUpOneSidedHouses() {
-        if (getHouseSumSouth() == 0) {
-            for (int i = 0; i < getBoardSize(); i++) {
-                storeNorth += housesNorth[i];
-                housesNorth[i] = 0;
-            }
-        } else if (getHouseSumNorth() == 0) {
-            for (int i = 0; i < getBoardSize(); i++) {
-                storeSouth += housesSouth[i];
-                housesSouth[i] = 0;
-            }
+        if (houseSum(offset) == 0) {
+            sweep(otherOffset());
+        } else if (houseSum(otherOffset()) == 0) {
+            sweep(offset);
+        }
+    }
+
+    // like cleanUpOneSidedHouses() but remembers the swept houses for undoMove()
+    // returns which houses have been swept, see UndoRecord
+    private int sweepOneSidedHouses() {
+        int start;
+        int swept;
+        if (houseSum(offset) == 0) {
+            start = otherOffset();
+            swept = UndoRecord.SWEPT_OTHER;
+        } else if (houseSum(otherOffset()) == 0) {
+            start = offset;
+            swept = UndoRecord.SWEPT_OWN;
+        } else {
+            return UndoRecord.NOT_SWEPT;
+        }
+
+        int n = getBoardSize();
+        if (sweepTop + n > sweepStack.length) {
+            sweepStack = Arrays.copyOf(sweepStack, Math.max(2 * sweepStack.length, sweepTop + n));
+        }
+        System.arraycopy(ring, start, sweepStack, sweepTop, n);
+        sweepTop += n;
+
+        sweep(start);
+        return swept;
+    }
+
+    // moves the seeds of the houses starting at the given index into the store behind them
+    private void sweep(int start) {
+        int n = getBoardSize();
+        for (int i = 0; i < n; i++) {
+            put(start + n, ring[start + n] + ring[start + i]);
+            put(start + i, 0);
         }
     }
 
+    // sum of the seeds in the houses starting at the given index, either 0 or N+1
+    private int houseSum(int start) {
+        return start == 0 ? houseSumLow : houseSumHigh;
+    }
+
     /**
      * Returns the difference between stores from the perspective of the player who is about to move e.g.
      * positive if the player who is about to move has more seeds in their store.
      */
     public int getStoreLead() {
-        if (playerToMove == Player.SOUTH) {
-            return storeSouth - storeNorth;
-        } else {
-            return storeNorth - storeSouth;
-        }
+        int n = getBoardSize();
+        return ring[offset + n] - ring[otherOffset() + n];
     }
 
     /** Returns the number of southern pits. */
     public int getBoardSize() {
-        return housesSouth.length;
+        return (ring.length - 2) / 2;
     }
 
     /** Returns the side to move. */
@@ -371,7 +521,7 @@ public class KalahState {
 
     /** Returns the number of seeds in southern store. */
     public int getStoreSouth() {
-        return storeSouth;
+        return ring[offsetOf(Player.SOUTH) + getBoardSize()];
     }
 
     /**
@@ -379,12 +529,12 @@ public class KalahState {
      * @param seeds New number of seeds.
      */
     public void setStoreSouth(int seeds) {
-        storeSouth = seeds;
+        put(offsetOf(Player.SOUTH) + getBoardSize(), seeds);
     }
 
     /** Returns the number of seeds in northern store. */
     public int getStoreNorth() {
-        return storeNorth;
+        return ring[offsetOf(Player.NORTH) + getBoardSize()];
     }
 
     /**
@@ -392,7 +542,7 @@ public class KalahState {
      * @param seeds New number of seeds.
      */
     public void setStoreNorth(int seeds) {
-        storeNorth = seeds;
+        put(offsetOf(Player.NORTH) + getBoardSize(), seeds);
     }
 
     /**
@@ -402,11 +552,8 @@ public class KalahState {
      * @param seeds Number of seeds to set.
      */
     public void setHouse(Player player, int index, int seeds) {
-        if (player == Player.SOUTH) {
-            housesSouth[index] = seeds;
-        } else {
-            housesNorth[index] = seeds;
-        }
+        assert index >= 0 && index < getBoardSize();
+        put(offsetOf(player) + index, seeds);
     }
 
     /**
@@ -415,42 +562,53 @@ public class KalahState {
      * Returns the number of seeds in this pit.
      */
     public int getHouse(Player player, int index) {
-        if (player == Player.SOUTH) {
-            return housesSouth[index];
-        } else {
-            return housesNorth[index];
-        }
+        assert index >= 0 && index < getBoardSize();
+        return ring[offsetOf(player) + index];
     }
 
     /** Returns the sum of seeds in southern houses. */
     public int getHouseSumSouth() {
-        int sum = 0;
-        for (int p : housesSouth) {
-            sum += p;
-        }
-        return sum;
+        return houseSum(offsetOf(Player.SOUTH));
     }
 
     /** Returns the sum of seeds in northern houses. */
     public int getHouseSumNorth() {
-        int sum = 0;
-        for (int p : housesNorth) {
-            sum += p;
-        }
-        return sum;
+        return houseSum(offsetOf(Player.NORTH));
     }
 
     /** Returns the sum of seeds in all houses. */
     public int getHouseSum() {
-        return getHouseSumSouth() + getHouseSumNorth();
+        return houseSumLow + houseSumHigh;
+    }
+
+    /**
+     * Returns the 64 bit Zobrist key of the position, including stores and side to move.
+     * The key is maintained incrementally by doMove() and undoMove(), so this is a simple field access.
+     * Keys don't depend on the JVM or the history of the board and can be persisted,
+     * as long as boards of different sizes aren't mixed.
+     */
+    public long zobristKey() {
+        return key;
+    }
+
+    // computes the Zobrist key from scratch, see Zobrist for the numbering of the pits
+    private long computeZobristKey() {
+        int south = offsetOf(Player.SOUTH);
+        long k = playerToMove == Player.NORTH ? Zobrist.NORTH_TO_MOVE : 0;
+        for (int pit = 0; pit < ring.length; pit++) {
+            int index = south + pit;
+            if (index >= ring.length) {
+                index -= ring.length;
+            }
+            k ^= Zobrist.pit(pit, ring[index]);
+        }
+        return k;
     }
 
-    /** Returns the hash code for board, not considering who is about to move */
+    /** Returns the hash code for board, derived from the Zobrist key e.g. considering who is about to move. */
     @Override
     public int hashCode() {
-        int ah = Arrays.hashCode(housesSouth) ^ Arrays.hashCode(housesNorth);
-        int sh = Integer.hashCode(storeSouth ^ Integer.hashCode(storeNorth));
-        return ah ^ sh;
+        return Long.hashCode(key);
     }
 
     /** Returns true iff stores, houses and turn are perfectly equal e.g. same side to move, same stores, same houses. */
@@ -463,11 +621,14 @@ public class KalahState {
 
         KalahState s = (KalahState) o;
 
-        return playerToMove == s.playerToMove &&
-                storeSouth == s.storeSouth &&
-                storeNorth == s.storeNorth &&
-                Arrays.equals(housesSouth, s.housesSouth) &&
-                Arrays.equals(housesNorth, s.housesNorth);
+        if (playerToMove != s.playerToMove || ring.length != s.ring.length) {
+            return false;
+        }
+
+        // compare houses and stores of the player to move, then those of the other player
+        int half = getBoardSize() + 1;
+        return Arrays.equals(ring, offset, offset + half, s.ring, s.offset, s.offset + half) &&
+                Arrays.equals(ring, otherOffset(), otherOffset() + half, s.ring, s.otherOffset(), s.otherOffset() + half);
     }
 
     /** Returns a multiline representation of the board, including stores and side to move. */
@@ -475,13 +636,13 @@ public class KalahState {
     public String toString() {
         StringBuilder hn = new StringBuilder("\t");
         StringBuilder hs = new StringBuilder("\t");
-        StringBuilder ss = new StringBuilder(storeNorth + "\t");
+        StringBuilder ss = new StringBuilder(getStoreNorth() + "\t");
         for (int i = 0; i < getBoardSize(); i++) {
-            hn.append(housesNorth[getBoardSize() - 1 - i]).append("\t");
-            hs.append(housesSouth[i]).append("\t");
+            hn.append(getHouse(Player.NORTH, getBoardSize() - 1 - i)).append("\t");
+            hs.append(getHouse(Player.SOUTH, i)).append("\t");
             ss.append('\t');
         }
-        ss.append(storeSouth);
+        ss.append(getStoreSouth());
         ss.append("\t");
         ss.append(playerToMove == Player.SOUTH ? "South" : "North");
 
@@ -489,6 +650,42 @@ public class KalahState {
         return hn.toString() + '\n' + ss + '\n' + hs;
     }
 
+    // Layout of the undo records returned by doMove(), packed into a single long:
+    // bits 0-15 move, bits 16-39 seeds sowed, bits 40-60 seeds captured from the opponent,
+    // bit 61 turn changed, bits 62-63 swept houses (seen from the player who moved)
+    private static final class UndoRecord {
+        static final int NOT_SWEPT = 0, SWEPT_OWN = 1, SWEPT_OTHER = 2;
+
+        static long encode(int move, int seeds, int captured, boolean turnChanged, int swept) {
+            assert move < (1 << 16) && seeds < (1 << 24) && captured < (1 << 21);
+            return move |
+                    (long) seeds << 16 |
+                    (long) captured << 40 |
+                    (turnChanged ? 1L << 61 : 0L) |
+                    (long) swept << 62;
+        }
+
+        static int move(long undo) {
+            return (int) (undo & 0xFFFF);
+        }
+
+        static int seeds(long undo) {
+            return (int) ((undo >>> 16) & 0xFFFFFF);
+        }
+
+        static int captured(long undo) {
+            return (int) ((undo >>> 40) & 0x1FFFFF);
+        }
+
+        static boolean turnChanged(long undo) {
+            return (undo & (1L << 61)) != 0;
+        }
+
+        static int swept(long undo) {
+            return (int) (undo >>> 62);
+        }
+    }
+
     /** Enum for possible game outcomes. */
     public enum GameResult {
         /** The outcome of the game is not determined by the seeds in the stores. */
@@ -0,0 +1,199 @@
+package info.kwarc.kalah;
+
+import info.kwarc.kalah.KalahState.Player;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Canonical binary encoding of KalahState, for game logs, opening books, caches and on-disk indexes.
+ * A board is encoded as its size, the side to move (0 for South, 1 for North), the southern and the northern store,
+ * the southern houses and the northern houses, all in sowing direction. Numbers are variable-length integers
+ * whose unsigned byte order equals their numeric order, so equal boards have equal encodings and comparing
+ * encodings with Arrays.compareUnsigned() orders boards by size, side to move, stores and houses.
+ * Note that ByteBuffer.compareTo() compares signed bytes and doesn't preserve this order.
+ * Encoding and decoding work directly on the buffer without creating intermediate objects.
+ */
+public final class KalahStateCodec {
+
+    /** Maximum number of bytes of a single encoded number. */
+    public static final int MAX_VARINT_LENGTH = 5;
+
+    private static final int SIDE_SOUTH = 0, SIDE_NORTH = 1;
+
+    private KalahStateCodec() {
+    }
+
+    /**
+     * Returns the number of bytes needed to encode the given board.
+     * @param ks The board to encode.
+     */
+    public static int encodedLength(KalahState ks) {
+        int n = ks.getBoardSize();
+        int length = varintLength(n) + 1 + varintLength(ks.getStoreSouth()) + varintLength(ks.getStoreNorth());
+        for (int i = 0; i < n; i++) {
+            length += varintLength(ks.getHouse(Player.SOUTH, i)) + varintLength(ks.getHouse(Player.NORTH, i));
+        }
+        return length;
+    }
+
+    /**
+     * Writes the encoding of the given board at the position of the buffer and advances it.
+     * @param ks The board to encode.
+     * @param out The buffer to write into, needs at least encodedLength(ks) bytes remaining.
+     * @throws IllegalArgumentException If the board has a negative number of seeds in a pit.
+     */
+    public static void encode(KalahState ks, ByteBuffer out) {
+        int n = ks.getBoardSize();
+        putVarint(out, n);
+        out.put((byte) (ks.getSideToMove() == Player.SOUTH ? SIDE_SOUTH : SIDE_NORTH));
+        putVarint(out, ks.getStoreSouth());
+        putVarint(out, ks.getStoreNorth());
+        for (int i = 0; i < n; i++) {
+            putVarint(out, ks.getHouse(Player.SOUTH, i));
+        }
+        for (int i = 0; i < n; i++) {
+            putVarint(out, ks.getHouse(Player.NORTH, i));
+        }
+    }
+
+    /**
+     * Returns the encoding of the given board as a new array.
+     * @param ks The board to encode.
+     */
+    public static byte[] encode(KalahState ks) {
+        byte[] bytes = new byte[encodedLength(ks)];
+        encode(ks, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * Reads an encoded board at the position of the buffer and advances it.
+     * @param in The buffer to read from.
+     * @return A new board.
+     * @throws IllegalArgumentException If the encoding is malformed.
+     */
+    public static KalahState decode(ByteBuffer in) {
+        int start = in.position();
+        KalahState ks = new KalahState(getVarint(in), 0);
+        in.position(start);
+        decode(in, ks);
+        return ks;
+    }
+
+    /**
+     * Reads an encoded board at the position of the buffer into the given board and advances the buffer.
+     * @param in The buffer to read from.
+     * @param into The board to overwrite, it has to be of the same size as the encoded one.
+     * @throws IllegalArgumentException If the encoding is malformed or of a different board size.
+     */
+    public static void decode(ByteBuffer in, KalahState into) {
+        int n = getVarint(in);
+        if (n != into.getBoardSize()) {
+            throw new IllegalArgumentException("Encoded board has size " + n + ", expected " + into.getBoardSize());
+        }
+
+        int side = in.get();
+        if (side != SIDE_SOUTH && side != SIDE_NORTH) {
+            throw new IllegalArgumentException("Malformed side to move " + side);
+        }
+        if ((side == SIDE_SOUTH) != (into.getSideToMove() == Player.SOUTH)) {
+            into.flip();
+        }
+
+        into.setStoreSouth(getVarint(in));
+        into.setStoreNorth(getVarint(in));
+        for (int i = 0; i < n; i++) {
+            into.setHouse(Player.SOUTH, i, getVarint(in));
+        }
+        for (int i = 0; i < n; i++) {
+            into.setHouse(Player.NORTH, i, getVarint(in));
+        }
+    }
+
+    // Order preserving variable-length integers (the varints of SQLite4), by the first byte A0:
+    // A0 <= 240: the value is A0
+    // 241 <= A0 <= 248: the value is 240 + 256 * (A0 - 241) + A1
+    // A0 == 249: the value is 2288 + 256 * A1 + A2
+    // A0 == 250: the value is A1..A3 in big-endian order
+    // A0 == 251: the value is A1..A4 in big-endian order
+
+    /**
+     * Returns the number of bytes of the encoding of the given number.
+     * @param value Non-negative number.
+     */
+    public static int varintLength(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Can't encode negative number " + value);
+        } else if (value <= 240) {
+            return 1;
+        } else if (value <= 2287) {
+            return 2;
+        } else if (value <= 67823) {
+            return 3;
+        } else if (value <= 0xFFFFFF) {
+            return 4;
+        } else {
+            return 5;
+        }
+    }
+
+    /**
+     * Writes the given number at the position of the buffer and advances it.
+     * @param out The buffer to write into.
+     * @param value Non-negative number.
+     */
+    public static void putVarint(ByteBuffer out, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Can't encode negative number " + value);
+        } else if (value <= 240) {
+            out.put((byte) value);
+        } else if (value <= 2287) {
+            out.put((byte) ((value - 240) / 256 + 241));
+            out.put((byte) ((value - 240) % 256));
+        } else if (value <= 67823) {
+            out.put((byte) 249);
+            out.put((byte) ((value - 2288) / 256));
+            out.put((byte) ((value - 2288) % 256));
+        } else if (value <= 0xFFFFFF) {
+            out.put((byte) 250);
+            out.put((byte) (value >>> 16));
+            out.put((byte) (value >>> 8));
+            out.put((byte) value);
+        } else {
+            // not putInt(), which depends on the byte order of the buffer
+            out.put((byte) 251);
+            out.put((byte) (value >>> 24));
+            out.put((byte) (value >>> 16));
+            out.put((byte) (value >>> 8));
+            out.put((byte) value);
+        }
+    }
+
+    /**
+     * Reads a number at the position of the buffer and advances it.
+     * Only the shortest encoding of a number is accepted, so every encoding stays canonical.
+     * @param in The buffer to read from.
+     * @throws IllegalArgumentException If the encoding is malformed.
+     */
+    public static int getVarint(ByteBuffer in) {
+        int a0 = in.get() & 0xFF;
+        int value;
+        if (a0 <= 240) {
+            return a0;
+        } else if (a0 <= 248) {
+            return 240 + 256 * (a0 - 241) + (in.get() & 0xFF);
+        } else if (a0 == 249) {
+            return 2288 + 256 * (in.get() & 0xFF) + (in.get() & 0xFF);
+        } else if (a0 == 250) {
+            value = (in.get() & 0xFF) << 16 | (in.get() & 0xFF) << 8 | (in.get() & 0xFF);
+        } else if (a0 == 251) {
+            value = (in.get() & 0xFF) << 24 | (in.get() & 0xFF) << 16 | (in.get() & 0xFF) << 8 | (in.get() & 0xFF);
+        } else {
+            throw new IllegalArgumentException("Malformed number, first byte " + a0);
+        }
+        if (value < 0 || varintLength(value) != (a0 == 250 ? 4 : 5)) {
+            throw new IllegalArgumentException("Malformed number " + Integer.toUnsignedString(value));
+        }
+        return value;
+    }
+}
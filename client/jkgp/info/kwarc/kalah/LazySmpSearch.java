@@ -0,0 +1,169 @@
+package info.kwarc.kalah;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Multi-threaded search in the style of Lazy SMP: the calling thread runs iterative deepening as usual,
+ * while helper threads run their own iterative deepening on the same board. All threads share one
+ * TranspositionTable, so results of the helpers speed up the search of the calling thread. Helpers start at
+ * different depths and order quiet moves slightly differently, so they search different parts of the tree.
+ * Only the calling thread reports results, e.g. it alone may call Agent.submitMove().
+ * Helpers check the stop condition as often as the calling thread does and stop when it's done.
+ */
+public class LazySmpSearch {
+
+    private final SearchEngine main;
+    private final SearchEngine[] helpers;
+    private final TranspositionTable tt;
+    private final ExecutorService pool;
+    private final long[] nodes; // per thread during the last search, the calling thread first
+
+    // set when the calling thread is done, helpers stop as soon as they notice
+    private volatile boolean done;
+
+    /**
+     * Creates a search with the given number of helper threads.
+     * @param stop Stop condition, e.g. Agent.shouldStop(), has to be thread-safe.
+     * @param tt Table shared by all threads.
+     * @param helperThreads Number of helper threads, 0 for a single-threaded search.
+     */
+    public LazySmpSearch(BooleanSupplier stop, TranspositionTable tt, int helperThreads) {
+        this.tt = tt;
+        main = new SearchEngine(stop);
+        main.setTranspositionTable(tt);
+
+        helpers = new SearchEngine[helperThreads];
+        for (int i = 0; i < helperThreads; i++) {
+            helpers[i] = new SearchEngine(() -> done || stop.getAsBoolean());
+            helpers[i].setTranspositionTable(tt);
+            helpers[i].setOrderingPerturbation(0x9E3779B97F4A7C15L * (i + 1));
+        }
+        nodes = new long[helperThreads + 1];
+
+        // daemon threads which end when idle for a while, so nothing needs to be shut down
+        if (helperThreads == 0) {
+            pool = null;
+        } else {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(helperThreads, helperThreads,
+                    10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "LazySmpSearch helper");
+                t.setDaemon(true);
+                return t;
+            });
+            executor.allowCoreThreadTimeOut(true);
+            pool = executor;
+        }
+    }
+
+    /**
+     * Sets how iterative deepening searches the root on all threads, see SearchEngine.setDriver().
+     * @param driver The driver.
+     */
+    public void setDriver(SearchEngine.Driver driver) {
+        main.setDriver(driver);
+        for (SearchEngine helper : helpers) {
+            helper.setDriver(driver);
+        }
+    }
+
+    /**
+     * Sets the database to look up endgame positions in on all threads, null for none.
+     * @param endgame The database.
+     */
+    public void setEndgameDatabase(EndgameDatabase endgame) {
+        main.setEndgameDatabase(endgame);
+        for (SearchEngine helper : helpers) {
+            helper.setEndgameDatabase(endgame);
+        }
+    }
+
+    /**
+     * Iterative deepening on all threads until the search is aborted, the maximum depth is reached or the result
+     * of the game is decided, see SearchEngine.iterate(). Returns after all helpers have stopped.
+     * @param ks The board to search, it is not modified.
+     * @param maxDepth Depth of the last iteration.
+     * @param listener Receives the result of each completed iteration of the calling thread, may be null.
+     * @throws IOException If the listener throws.
+     */
+    public void search(KalahState ks, int maxDepth, SearchListener listener) throws IOException {
+        tt.newSearch();
+        done = false;
+
+        long[] before = new long[nodes.length];
+        before[0] = main.getNodes();
+        ArrayList<Future<?>> running = new ArrayList<>(helpers.length);
+        for (int i = 0; i < helpers.length; i++) {
+            SearchEngine helper = helpers[i];
+            before[i + 1] = helper.getNodes();
+            // every second helper is one ply ahead of the calling thread
+            int firstDepth = 1 + (i + 1) % 2;
+            running.add(pool.submit(() -> {
+                helper.iterate(ks, firstDepth, maxDepth, null);
+                return null;
+            }));
+        }
+
+        try {
+            main.iterate(ks, 1, maxDepth, listener);
+        } finally {
+            done = true;
+            for (Future<?> future : running) {
+                waitFor(future);
+            }
+        }
+
+        nodes[0] = main.getNodes() - before[0];
+        for (int i = 0; i < helpers.length; i++) {
+            nodes[i + 1] = helpers[i].getNodes() - before[i + 1];
+        }
+    }
+
+    private static void waitFor(Future<?> future) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                future.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true; // the helper stops anyway, wait for it and interrupt later
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Helper thread failed", e.getCause());
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Returns the number of threads, including the calling thread. */
+    public int getThreads() {
+        return nodes.length;
+    }
+
+    /** Returns the number of nodes searched by each thread during the last search, the calling thread first. */
+    public long[] getNodes() {
+        return nodes.clone();
+    }
+
+    /** Returns the number of nodes searched by all threads together during the last search. */
+    public long getTotalNodes() {
+        long sum = 0;
+        for (long n : nodes) {
+            sum += n;
+        }
+        return sum;
+    }
+
+    /** Returns the engine of the calling thread, e.g. for its statistics. */
+    public SearchEngine getMainEngine() {
+        return main;
+    }
+}
@@ -0,0 +1,83 @@
+package info.kwarc.kalah;
+
+/**
+ * A reusable list of moves backed by a primitive array, so enumerating moves doesn't allocate.
+ * Fill it via KalahState.getMoves(MoveList).
+ * Moves are indexed from 0 to N-1 in sowing direction.
+ */
+public class MoveList {
+
+    private final int[] moves;
+    private int size;
+
+    /**
+     * Creates an empty list.
+     * @param capacity Maximum number of moves, the board size is always enough.
+     */
+    public MoveList(int capacity) {
+        moves = new int[capacity];
+        size = 0;
+    }
+
+    /** Returns the number of moves in the list. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns true iff the list contains no moves. */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Returns the maximum number of moves the list can hold. */
+    public int capacity() {
+        return moves.length;
+    }
+
+    /**
+     * Returns the move at the given position.
+     * @param index Position in the list, from 0 to size()-1.
+     */
+    public int get(int index) {
+        assert index >= 0 && index < size;
+        return moves[index];
+    }
+
+    /**
+     * Appends a move to the list.
+     * @param move The move to append.
+     */
+    public void add(int move) {
+        moves[size++] = move;
+    }
+
+    /**
+     * Swaps the moves at the given positions, e.g. to reorder the moves in place.
+     * @param i Position of the first move.
+     * @param j Position of the second move.
+     */
+    public void swap(int i, int j) {
+        assert i >= 0 && i < size && j >= 0 && j < size;
+        int tmp = moves[i];
+        moves[i] = moves[j];
+        moves[j] = tmp;
+    }
+
+    /** Removes all moves from the list. */
+    public void clear() {
+        size = 0;
+    }
+
+    /** Returns the moves in a human-readable form. */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i != 0) {
+                sb.append(", ");
+            }
+            sb.append(moves[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,220 @@
+package info.kwarc.kalah;
+
+import java.util.Arrays;
+
+/**
+ * Orders the moves of a node for alpha-beta search, so the best move is likely to be searched first.
+ * Moves are tried in this order: the best move stored in the transposition table, moves ending in the own store
+ * (extra turns), captures by the number of seeds won, the killer moves of the ply (quiet moves which caused
+ * a cutoff at the same ply before) and the remaining moves by their history score (how often and how deep they
+ * caused cutoffs). At the root the moves are ranked by their scores from the previous iteration instead.
+ * Also keeps track of how often the first move caused the cutoff, a measure of the quality of the ordering.
+ * Like SearchEngine, an instance is meant for one thread.
+ */
+public final class MoveOrdering {
+
+    // priorities of the kinds of moves, a capture adds the seeds won, a quiet move its history score
+    private static final int HASH_MOVE = 1 << 30;
+    private static final int EXTRA_TURN = 1 << 29;
+    private static final int CAPTURE = 1 << 28;
+    private static final int KILLER = 1 << 27;
+    private static final int HISTORY_LIMIT = 1 << 26; // history scores are halved when reaching it
+
+    private static final int KILLERS_PER_PLY = 2;
+
+    private final int boardSize;
+    private final int[] keys; // priority of each move of the node being ordered
+    private int[] killers; // KILLERS_PER_PLY moves per ply, -1 if none
+    private final int[] history; // per player and move
+
+    private long rootKey;
+    private final int[] rootScores; // scores of the root moves in the previous iteration, by move
+    private final int[] nextRootScores; // scores of the root moves in the current iteration, by move
+    private boolean rootRanked;
+
+    private long random; // state of the random numbers perturbing the order of quiet moves, 0 for none
+
+    private long cutoffs, firstMoveCutoffs;
+
+    /**
+     * Creates an ordering without any knowledge about previous searches.
+     * @param boardSize Number of houses per player.
+     */
+    public MoveOrdering(int boardSize) {
+        this.boardSize = boardSize;
+        keys = new int[boardSize];
+        killers = new int[0];
+        history = new int[2 * boardSize];
+        rootScores = new int[boardSize];
+        nextRootScores = new int[boardSize];
+    }
+
+    /** Returns the number of houses per player this ordering is made for. */
+    public int getBoardSize() {
+        return boardSize;
+    }
+
+    /**
+     * Adds some noise to the history scores when ordering, e.g. so threads sharing a transposition table search
+     * different moves first. Only the order of quiet moves is affected.
+     * @param seed Seed of the noise, 0 for none.
+     */
+    void setPerturbation(long seed) {
+        random = seed;
+    }
+
+    /**
+     * Starts an iteration of a search of the given root position.
+     * Moving on to another position ages the history scores and forgets killer moves and the root ranking.
+     * @param key Zobrist key of the root position.
+     */
+    void startIteration(long key) {
+        if (key != rootKey) {
+            rootKey = key;
+            rootRanked = false;
+            Arrays.fill(killers, -1);
+            for (int i = 0; i < history.length; i++) {
+                history[i] /= 2;
+            }
+        }
+        Arrays.fill(nextRootScores, -SearchEngine.INFINITY);
+    }
+
+    /**
+     * Records the score of a root move in the current iteration.
+     * @param move The root move.
+     * @param score Its score, a bound if it has been searched with a window not containing the real score.
+     */
+    void rootScore(int move, int score) {
+        nextRootScores[move] = score;
+    }
+
+    /** Ends a completed iteration, its root scores rank the root moves of the next iteration. */
+    void finishIteration() {
+        System.arraycopy(nextRootScores, 0, rootScores, 0, boardSize);
+        rootRanked = true;
+    }
+
+    /**
+     * Sorts the legal moves of a node, best first.
+     * @param ks The board of the node.
+     * @param moves The legal moves of the board, sorted in place.
+     * @param hashMove Best move of the node stored in the transposition table, -1 if none.
+     * @param ply Distance of the node from the root.
+     */
+    void order(KalahState ks, MoveList moves, int hashMove, int ply) {
+        int size = moves.size();
+        int side = ks.getSideToMove().ordinal() * boardSize;
+        for (int i = 0; i < size; i++) {
+            int move = moves.get(i);
+            int key;
+            if (move == hashMove) {
+                key = HASH_MOVE;
+            } else if (ply == 0 && rootRanked) {
+                // scores range from -INFINITY to INFINITY, shifted to stay below the hash move
+                key = rootScores[move] - SearchEngine.INFINITY;
+            } else if (ks.isDoubleMove(move)) {
+                // the house closest to the store first, it doesn't change the houses before it
+                key = EXTRA_TURN + move;
+            } else {
+                int captured = ks.capturedSeeds(move);
+                if (captured != 0) {
+                    key = CAPTURE + captured;
+                } else if (isKiller(move, ply)) {
+                    key = KILLER + (killers[ply * KILLERS_PER_PLY] == move ? 1 : 0);
+                } else {
+                    key = history[side + move];
+                    if (random != 0) {
+                        // xorshift
+                        random ^= random << 13;
+                        random ^= random >>> 7;
+                        random ^= random << 17;
+                        key += (int) (random & 0xFF);
+                    }
+                }
+            }
+            keys[i] = key;
+        }
+
+        // insertion sort, there are only a few moves
+        for (int i = 1; i < size; i++) {
+            int key = keys[i];
+            int j = i;
+            while (j > 0 && keys[j - 1] < key) {
+                keys[j] = keys[j - 1];
+                moves.swap(j - 1, j);
+                j--;
+            }
+            keys[j] = key;
+        }
+    }
+
+    private boolean isKiller(int move, int ply) {
+        int base = ply * KILLERS_PER_PLY;
+        if (base >= killers.length) {
+            return false;
+        }
+        for (int i = base; i < base + KILLERS_PER_PLY; i++) {
+            if (killers[i] == move) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records that a move caused a beta cutoff.
+     * Quiet moves, e.g. neither extra turns nor captures, become killer moves and gain history score.
+     * @param ks The board of the node, before the move.
+     * @param move The move.
+     * @param index Position of the move in the ordered moves of the node, 0 for the first one.
+     * @param ply Distance of the node from the root.
+     * @param depth Remaining depth of the node.
+     */
+    void cutoff(KalahState ks, int move, int index, int ply, int depth) {
+        cutoffs++;
+        if (index == 0) {
+            firstMoveCutoffs++;
+        }
+
+        if (ks.isDoubleMove(move) || ks.isCaptureMove(move)) {
+            return;
+        }
+
+        // killer moves of the ply, the most recent one first
+        int base = ply * KILLERS_PER_PLY;
+        if (base + KILLERS_PER_PLY > killers.length) {
+            int old = killers.length;
+            killers = Arrays.copyOf(killers, base + 16 * KILLERS_PER_PLY);
+            Arrays.fill(killers, old, killers.length, -1);
+        }
+        if (killers[base] != move) {
+            System.arraycopy(killers, base, killers, base + 1, KILLERS_PER_PLY - 1);
+            killers[base] = move;
+        }
+
+        // cutoffs far from the leaves are worth more
+        int side = ks.getSideToMove().ordinal() * boardSize;
+        history[side + move] += depth * depth;
+        if (history[side + move] >= HISTORY_LIMIT) {
+            for (int i = 0; i < history.length; i++) {
+                history[i] /= 2;
+            }
+        }
+    }
+
+    /** Returns the number of beta cutoffs so far. */
+    public long getCutoffs() {
+        return cutoffs;
+    }
+
+    /** Returns the number of beta cutoffs caused by the first move of a node so far. */
+    public long getFirstMoveCutoffs() {
+        return firstMoveCutoffs;
+    }
+
+    /** Returns the share of beta cutoffs caused by the first move of a node, from 0 to 1, or 0 without cutoffs. */
+    public double getFirstMoveCutoffRate() {
+        return cutoffs == 0 ? 0 : (double) firstMoveCutoffs / cutoffs;
+    }
+}
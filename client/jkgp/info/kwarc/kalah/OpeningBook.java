@@ -0,0 +1,265 @@
+package info.kwarc.kalah;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Best moves of the positions of the first plies of a game, searched deeply in advance by build().
+ * The file holds a header and one record per position, sorted by key: the key and the data, with the same layout
+ * as the data of a TranspositionTable entry. Keys are KalahState.zobristKey() mixed with the board size and the
+ * total number of seeds, so a book can hold several setups without their positions colliding.
+ * The file is memory-mapped and probed by binary search, so it isn't loaded into the heap.
+ */
+public final class OpeningBook {
+
+    // header: magic, version, number of records, then the records
+    private static final long MAGIC = 0x4B616C6168424F4BL; // "KalahBOK"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 32;
+    private static final int RECORD_BYTES = 16;
+
+    // layout of the data of a record: bits 0-31 score, bits 32-39 depth, bits 48-63 move + 1
+    private static final int DEPTH_SHIFT = 32;
+    private static final int MOVE_SHIFT = 48;
+
+    private final MappedByteBuffer records;
+    private final int size;
+
+    private OpeningBook(MappedByteBuffer records, int size) {
+        this.records = records;
+        this.size = size;
+    }
+
+    /**
+     * Opens a book file for probing, mapping it into memory read-only.
+     * @param file The file written by build().
+     * @return The book.
+     * @throws IOException If the file can't be read or isn't a book.
+     */
+    public static OpeningBook open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " isn't an opening book");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION) {
+                throw new IOException(file + " isn't an opening book of version " + VERSION);
+            }
+            int size = buffer.getInt(12);
+            if (HEADER_BYTES + (long) size * RECORD_BYTES != channel.size()) {
+                throw new IOException(file + " is truncated");
+            }
+            return new OpeningBook(buffer, size);
+        }
+    }
+
+    /** Returns the number of positions in the book. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the record of the given board or 0 if it isn't in the book.
+     * Use score(), depth() and move() to read the record.
+     * @param ks The board to look up.
+     */
+    public long probe(KalahState ks) {
+        long key = key(ks);
+        int lo = 0, hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long k = records.getLong(HEADER_BYTES + mid * RECORD_BYTES);
+            if (k < key) {
+                lo = mid + 1;
+            } else if (k > key) {
+                hi = mid - 1;
+            } else {
+                long data = records.getLong(HEADER_BYTES + mid * RECORD_BYTES + 8);
+                // keys of other positions may still collide
+                int move = move(data);
+                return move >= 0 && move < ks.getBoardSize() && ks.isLegalMove(move) ? data : 0;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the score of a record, see SearchEngine.search(). */
+    public static int score(long record) {
+        return (int) record;
+    }
+
+    /** Returns the depth a record has been searched to, TranspositionTable.PROVEN if its score is proven. */
+    public static int depth(long record) {
+        return (int) (record >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    /** Returns the best move of a record. Moves are indexed from 0 to N-1 in sowing direction. */
+    public static int move(long record) {
+        return (int) (record >>> MOVE_SHIFT) - 1;
+    }
+
+    /**
+     * Searches all positions reached in the given number of plies from the given boards and writes a book of
+     * their best moves. Positions are searched in parallel, each thread with its own SearchEngine, all sharing
+     * one TranspositionTable. Prints the progress to System.out.
+     * @param setups Boards to start from, e.g. new KalahState(6, 6).
+     * @param plies Number of plies from the setups, positions after more plies aren't in the book.
+     * @param depth Depth of the iterative deepening of each position.
+     * @param threads Number of threads searching.
+     * @param file The file to write, replaced if it exists.
+     * @throws IOException If the file can't be written.
+     */
+    public static void build(KalahState[] setups, int plies, int depth, int threads, Path file) throws IOException {
+        // positions reached by different moves are searched once
+        HashMap<Long, KalahState> reached = new HashMap<>();
+        for (KalahState setup : setups) {
+            collect(new KalahState(setup), plies, reached);
+        }
+        ArrayList<KalahState> positions = new ArrayList<>(reached.values());
+        System.out.printf("%,d positions up to %d plies, searching to depth %d on %d threads%n",
+                positions.size(), plies, depth, threads);
+
+        long[] keys = new long[positions.size()];
+        long[] data = new long[positions.size()];
+        TranspositionTable tt = new TranspositionTable(256 << 20);
+        AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<?>> running = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                running.add(pool.submit(() -> {
+                    SearchEngine engine = new SearchEngine(() -> false);
+                    engine.setTranspositionTable(tt);
+                    long[] last = new long[1];
+                    for (int i = next.getAndIncrement(); i < keys.length; i = next.getAndIncrement()) {
+                        KalahState ks = positions.get(i);
+                        engine.iterate(ks, 1, depth, (d, score, move) -> last[0] = record(d, score, move));
+                        keys[i] = key(ks);
+                        data[i] = engine.isProven() ?
+                                record(TranspositionTable.PROVEN, score(last[0]), move(last[0])) : last[0];
+                        if ((i + 1) % 1000 == 0) {
+                            System.out.printf("%,d positions, %.0f s%n", i + 1, (System.nanoTime() - start) / 1e9);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : running) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Building the book has been interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Search thread failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // records sorted by key for the binary search
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> keys[i]));
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + keys.length * RECORD_BYTES);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(keys.length);
+        buffer.position(HEADER_BYTES);
+        for (int i : order) {
+            buffer.putLong(keys[i]);
+            buffer.putLong(data[i]);
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        System.out.printf("%,d positions in %.0f s%n", keys.length, (System.nanoTime() - start) / 1e9);
+    }
+
+    // Zobrist key of the position mixed with its setup, with the finalizer of SplitMix64
+    private static long key(KalahState ks) {
+        long z = (long) ks.getBoardSize() << 32 | ks.totalSeeds();
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return ks.zobristKey() ^ z ^ (z >>> 31);
+    }
+
+    private static long record(int depth, int score, int move) {
+        return (score & 0xFFFFFFFFL) |
+                (long) Math.min(depth, TranspositionTable.MAX_DEPTH) << DEPTH_SHIFT |
+                (long) (move + 1) << MOVE_SHIFT;
+    }
+
+    // adds the undecided positions reached in at most the given number of plies, ply by ply: a position reached
+    // by paths of different lengths, e.g. with extra turns, is expanded from the shortest one
+    private static void collect(KalahState setup, int plies, HashMap<Long, KalahState> reached) {
+        ArrayList<KalahState> positions = new ArrayList<>();
+        positions.add(setup);
+        for (int ply = 0; ply <= plies && !positions.isEmpty(); ply++) {
+            ArrayList<KalahState> next = new ArrayList<>();
+            for (KalahState ks : positions) {
+                if (ks.result() != KalahState.GameResult.UNDECIDED || reached.putIfAbsent(key(ks), ks) != null) {
+                    continue;
+                }
+                if (ply < plies) {
+                    for (int move = 0; move < ks.getBoardSize(); move++) {
+                        if (ks.isLegalMove(move)) {
+                            KalahState child = new KalahState(ks);
+                            child.doMove(move);
+                            next.add(child);
+                        }
+                    }
+                }
+            }
+            positions = next;
+        }
+    }
+
+    /**
+     * Builds a book.
+     * Arguments (all optional): plies (default 6), search depth (default 16),
+     * number of threads (default: number of processors), file (default book.db),
+     * setups as HOUSESxSEEDS, comma separated (default 6x4,6x6,8x8).
+     * @param args Command line arguments.
+     * @throws IOException If the file can't be written.
+     */
+    public static void main(String[] args) throws IOException {
+        int plies = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        Path file = Paths.get(args.length > 3 ? args[3] : "book.db");
+        String[] names = (args.length > 4 ? args[4] : "6x4,6x6,8x8").split(",");
+
+        KalahState[] setups = new KalahState[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String[] size = names[i].split("x");
+            setups[i] = new KalahState(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+        }
+        build(setups, plies, depth, threads, file);
+    }
+}
@@ -0,0 +1,297 @@
+package info.kwarc.kalah;
+
+import info.kwarc.kalah.KalahState.GameResult;
+import info.kwarc.kalah.KalahState.Player;
+
+/**
+ * A compact Kalah board for boards of up to 8 houses per player, encoded in three longs.
+ * Meant for caches, databases and high-volume search, where copying, comparing and hashing positions
+ * has to be cheap. Use KalahState for everything else, both can be converted into each other.
+ * Houses hold at most 127 seeds and stores at most 2^24-1, exceeding this throws an ArithmeticException.
+ * Moves are indexed from 0 to N-1 in sowing direction, like for KalahState.
+ */
+public class PackedKalahState {
+
+    /** Maximum number of houses per player. */
+    public static final int MAX_BOARD_SIZE = 8;
+
+    /** Maximum number of seeds in a house. */
+    public static final int MAX_HOUSE_SEEDS = 127;
+
+    /** Maximum number of seeds in a store. */
+    public static final int MAX_STORE_SEEDS = (1 << 24) - 1;
+
+    // one byte per house, house i in bits 8i to 8i+7
+    // the highest bit of every byte is always 0, so adding to all houses at once can't carry into the next house
+    // and exceeding MAX_HOUSE_SEEDS is detected by looking at the highest bits
+    private long south, north;
+
+    // bits 0-23 southern store, bits 24-47 northern store, bits 48-51 board size, bit 63 set iff North to move
+    private long meta;
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long STORE_MASK = MAX_STORE_SEEDS;
+    private static final int NORTH_STORE_SHIFT = 24;
+    private static final int SIZE_SHIFT = 48;
+    private static final long NORTH_TO_MOVE = 1L << 63;
+
+    /**
+     * Creates a packed copy of the given board.
+     * @param ks The board to copy.
+     * @throws IllegalArgumentException If the board is too big or holds too many seeds in a pit.
+     */
+    public PackedKalahState(KalahState ks) {
+        int n = ks.getBoardSize();
+        if (n > MAX_BOARD_SIZE) {
+            throw new IllegalArgumentException("Board size " + n + " exceeds " + MAX_BOARD_SIZE);
+        }
+        for (int i = 0; i < n; i++) {
+            south |= (long) checkHouse(ks.getHouse(Player.SOUTH, i)) << (8 * i);
+            north |= (long) checkHouse(ks.getHouse(Player.NORTH, i)) << (8 * i);
+        }
+        meta = (long) checkStore(ks.getStoreSouth()) |
+                (long) checkStore(ks.getStoreNorth()) << NORTH_STORE_SHIFT |
+                (long) n << SIZE_SHIFT |
+                (ks.getSideToMove() == Player.NORTH ? NORTH_TO_MOVE : 0L);
+    }
+
+    /**
+     * Creates a copy of the given board.
+     * @param state The board to copy.
+     */
+    public PackedKalahState(PackedKalahState state) {
+        south = state.south;
+        north = state.north;
+        meta = state.meta;
+    }
+
+    private static int checkHouse(int seeds) {
+        if (seeds < 0 || seeds > MAX_HOUSE_SEEDS) {
+            throw new IllegalArgumentException("House with " + seeds + " seeds can't be packed");
+        }
+        return seeds;
+    }
+
+    private static int checkStore(int seeds) {
+        if (seeds < 0 || seeds > MAX_STORE_SEEDS) {
+            throw new IllegalArgumentException("Store with " + seeds + " seeds can't be packed");
+        }
+        return seeds;
+    }
+
+    /** Returns an equivalent KalahState. */
+    public KalahState toKalahState() {
+        int n = getBoardSize();
+        KalahState ks = new KalahState(n, 0);
+        if (getSideToMove() == Player.NORTH) {
+            ks.flip();
+        }
+        for (int i = 0; i < n; i++) {
+            ks.setHouse(Player.SOUTH, i, house(south, i));
+            ks.setHouse(Player.NORTH, i, house(north, i));
+        }
+        ks.setStoreSouth(getStoreSouth());
+        ks.setStoreNorth(getStoreNorth());
+        return ks;
+    }
+
+    /** Returns the number of southern pits. */
+    public int getBoardSize() {
+        return (int) ((meta >>> SIZE_SHIFT) & 0xF);
+    }
+
+    /** Returns the side to move. */
+    public Player getSideToMove() {
+        return (meta & NORTH_TO_MOVE) != 0 ? Player.NORTH : Player.SOUTH;
+    }
+
+    /** Returns the number of seeds in southern store. */
+    public int getStoreSouth() {
+        return (int) (meta & STORE_MASK);
+    }
+
+    /** Returns the number of seeds in northern store. */
+    public int getStoreNorth() {
+        return (int) ((meta >>> NORTH_STORE_SHIFT) & STORE_MASK);
+    }
+
+    /**
+     * @param index Index of the pit (0 to N-1 in sowing direction).
+     * @param player Which houses to look at.
+     * Returns the number of seeds in this pit.
+     */
+    public int getHouse(Player player, int index) {
+        assert index >= 0 && index < getBoardSize();
+        return house(player == Player.SOUTH ? south : north, index);
+    }
+
+    /**
+     * Returns the difference between stores from the perspective of the player who is about to move e.g.
+     * positive if the player who is about to move has more seeds in their store.
+     */
+    public int getStoreLead() {
+        int lead = getStoreSouth() - getStoreNorth();
+        return getSideToMove() == Player.SOUTH ? lead : -lead;
+    }
+
+    /** Returns the sum of seeds in all houses. */
+    public int getHouseSum() {
+        return sum(south) + sum(north);
+    }
+
+    /**
+     * Return whether the given move is legal.
+     * @param move Move to check for legality.
+     */
+    public boolean isLegalMove(int move) {
+        assert move >= 0 && move < getBoardSize();
+        return house(own(), move) != 0;
+    }
+
+    /**
+     * Returns the legal moves as a bitmask, bit i is set iff move i is legal.
+     * Moves are indexed from 0 to N-1 in sowing direction.
+     */
+    public long legalMoveMask() {
+        // highest bit of a byte set iff the house isn't empty, no carries since houses hold at most 127 seeds
+        long nonEmpty = (own() + ~HIGH_BITS) & HIGH_BITS;
+        // gather the highest bits of all bytes into the lowest byte
+        return ((nonEmpty >>> 7) * 0x0102040810204080L) >>> 56;
+    }
+
+    /** Returns the GameResult from the player to move's perspective. */
+    public GameResult result() {
+        int own = getSideToMove() == Player.SOUTH ? getStoreSouth() : getStoreNorth();
+        int opp = getSideToMove() == Player.SOUTH ? getStoreNorth() : getStoreSouth();
+
+        if (own() == 0) {
+            if (own > opp)
+                return GameResult.WIN;
+            else if (own == opp)
+                return GameResult.DRAW;
+            else
+                return GameResult.LOSS;
+        } else {
+            int total = own + opp + getHouseSum();
+            if (own > total / 2)
+                return GameResult.KNOWN_WIN;
+            else if (opp > total / 2)
+                return GameResult.KNOWN_LOSS;
+            else
+                return GameResult.UNDECIDED;
+        }
+    }
+
+    /**
+     * Executes the given move by modifying the board, with the same rules as KalahState.doMove().
+     * There is no undo, copying a PackedKalahState is cheap.
+     * @param move The move to execute. Moves are indexed from 0 to N-1 in sowing direction.
+     * @throws ArithmeticException If a house or a store would exceed its maximum number of seeds.
+     */
+    public void doMove(int move) {
+        assert isLegalMove(move);
+
+        boolean southToMove = getSideToMove() == Player.SOUTH;
+        int n = getBoardSize();
+        long own = own();
+        long opp = southToMove ? north : south;
+        int ownStore = southToMove ? getStoreSouth() : getStoreNorth();
+        int oppStore = southToMove ? getStoreNorth() : getStoreSouth();
+
+        // grab the seeds
+        int seeds = house(own, move);
+        own &= ~(0xFFL << (8 * move));
+
+        // sow full laps into all pits at once, then the rest
+        int cycle = 2 * n + 1;
+        int laps = seeds / cycle;
+        int last = move + seeds % cycle; // relative index of the last pit reached by the rest, not wrapped around
+
+        long lapSeeds = laps * range(0, n - 1);
+        own += lapSeeds + range(move + 1, Math.min(n - 1, last)) + range(0, last - cycle);
+        opp += lapSeeds + range(0, Math.min(n - 1, last - n - 1));
+        ownStore += laps + (last >= n ? 1 : 0);
+
+        // handle captures
+        int endsUp = last >= cycle ? last - cycle : last;
+        if (endsUp < n && house(own, endsUp) == 1 && house(opp, n - 1 - endsUp) != 0) {
+            ownStore += 1 + house(opp, n - 1 - endsUp);
+            own &= ~(0xFFL << (8 * endsUp));
+            opp &= ~(0xFFL << (8 * (n - 1 - endsUp)));
+        }
+
+        // handle one side being empty
+        if (own == 0) {
+            oppStore += sum(opp);
+            opp = 0;
+        } else if (opp == 0) {
+            ownStore += sum(own);
+            own = 0;
+        }
+
+        // houses have at most 127 + 43 seeds now, so nothing carried into the next house
+        if (((own | opp) & HIGH_BITS) != 0) {
+            throw new ArithmeticException("House exceeds " + MAX_HOUSE_SEEDS + " seeds");
+        }
+        if (ownStore > MAX_STORE_SEEDS || oppStore > MAX_STORE_SEEDS) {
+            throw new ArithmeticException("Store exceeds " + MAX_STORE_SEEDS + " seeds");
+        }
+
+        // handle turn
+        boolean turnChanged = endsUp != n;
+
+        south = southToMove ? own : opp;
+        north = southToMove ? opp : own;
+        meta = (long) (southToMove ? ownStore : oppStore) |
+                (long) (southToMove ? oppStore : ownStore) << NORTH_STORE_SHIFT |
+                (long) n << SIZE_SHIFT |
+                (southToMove == turnChanged ? NORTH_TO_MOVE : 0L);
+    }
+
+    // houses of the player to move
+    private long own() {
+        return (meta & NORTH_TO_MOVE) != 0 ? north : south;
+    }
+
+    private static int house(long houses, int index) {
+        return (int) ((houses >>> (8 * index)) & 0xFF);
+    }
+
+    // one seed in each of the houses from lo to hi, none if hi < lo
+    private static long range(int lo, int hi) {
+        if (hi < lo) {
+            return 0;
+        }
+        return (ONES >>> (8 * (7 - hi))) & (ONES << (8 * lo));
+    }
+
+    // sum of the seeds in all houses
+    private static int sum(long houses) {
+        long pairs = (houses & 0x00FF00FF00FF00FFL) + ((houses >>> 8) & 0x00FF00FF00FF00FFL);
+        return (int) ((pairs * 0x0001000100010001L) >>> 48);
+    }
+
+    /** Returns true iff stores, houses and turn are perfectly equal. */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PackedKalahState)) {
+            return false;
+        }
+        PackedKalahState s = (PackedKalahState) o;
+        return south == s.south && north == s.north && meta == s.meta;
+    }
+
+    /** Returns the hash code for board, considering who is about to move. */
+    @Override
+    public int hashCode() {
+        long h = south * 0x9E3779B97F4A7C15L ^ north * 0xC2B2AE3D27D4EB4FL ^ meta;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** Returns a multiline representation of the board, including stores and side to move. */
+    @Override
+    public String toString() {
+        return toKalahState().toString();
+    }
+}
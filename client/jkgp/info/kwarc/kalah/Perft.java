@@ -0,0 +1,239 @@
+package info.kwarc.kalah;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the positions reachable from a board in a given number of moves ("perft"),
+ * to validate and measure the speed of KalahState.doMove() and undoMove().
+ * Leaves are the positions reached after exactly the given number of moves, games which end earlier don't count.
+ * Depth is either counted in plies, e.g. every move counts including the ones after an extra turn,
+ * or in turns, e.g. a chain of extra turns counts as a single move of the player.
+ * Run main() to check the counts for the standard setups and to measure the throughput.
+ */
+public final class Perft {
+
+    // below this many remaining moves the parallel variant stops forking and counts on a single board
+    private static final int SPLIT_DEPTH = 4;
+
+    // Reference counts from the start positions:
+    // houses, seeds per house, 1 iff depth is counted in turns (0 for plies), depth, number of leaves
+    private static final long[][] REFERENCE = {
+            {6, 4, 0, 1, 6},
+            {6, 4, 0, 2, 35},
+            {6, 4, 0, 3, 185},
+            {6, 4, 0, 4, 942},
+            {6, 4, 0, 5, 4690},
+            {6, 4, 0, 6, 23233},
+            {6, 4, 0, 7, 114430},
+            {6, 4, 0, 8, 563055},
+            {6, 4, 0, 9, 2763490},
+            {6, 4, 0, 10, 13519607},
+            {6, 4, 0, 11, 65870758},
+            {6, 6, 0, 1, 6},
+            {6, 6, 0, 2, 35},
+            {6, 6, 0, 3, 190},
+            {6, 6, 0, 4, 1056},
+            {6, 6, 0, 5, 5882},
+            {6, 6, 0, 6, 32243},
+            {6, 6, 0, 7, 177827},
+            {6, 6, 0, 8, 962153},
+            {6, 6, 0, 9, 5197521},
+            {6, 6, 0, 10, 27673819},
+            {6, 6, 0, 11, 146117172},
+            {8, 8, 0, 1, 8},
+            {8, 8, 0, 2, 63},
+            {8, 8, 0, 3, 469},
+            {8, 8, 0, 4, 3543},
+            {8, 8, 0, 5, 26770},
+            {8, 8, 0, 6, 200755},
+            {8, 8, 0, 7, 1513247},
+            {8, 8, 0, 8, 11284493},
+            {8, 8, 0, 9, 84354870},
+            {6, 4, 1, 1, 10},
+            {6, 4, 1, 2, 116},
+            {6, 4, 1, 3, 1022},
+            {6, 4, 1, 4, 9682},
+            {6, 4, 1, 5, 125843},
+            {6, 4, 1, 6, 1090937},
+            {6, 4, 1, 7, 10171460},
+            {6, 6, 1, 1, 10},
+            {6, 6, 1, 2, 60},
+            {6, 6, 1, 3, 329},
+            {6, 6, 1, 4, 1907},
+            {6, 6, 1, 5, 12441},
+            {6, 6, 1, 6, 80209},
+            {6, 6, 1, 7, 605596},
+            {6, 6, 1, 8, 4240545},
+            {8, 8, 1, 1, 14},
+            {8, 8, 1, 2, 112},
+            {8, 8, 1, 3, 839},
+            {8, 8, 1, 4, 6529},
+            {8, 8, 1, 5, 55948},
+            {8, 8, 1, 6, 483029},
+            {8, 8, 1, 7, 4667977},
+    };
+
+    private Perft() {
+    }
+
+    /**
+     * Returns the number of positions reached after exactly the given number of plies.
+     * The board is unchanged afterwards.
+     * @param ks The board to start from.
+     * @param depth Number of plies, every move counts including the ones after an extra turn.
+     */
+    public static long perft(KalahState ks, int depth) {
+        return perft(ks, depth, false);
+    }
+
+    /**
+     * Returns the number of positions reached after exactly the given number of moves.
+     * The board is unchanged afterwards.
+     * @param ks The board to start from.
+     * @param depth Number of moves.
+     * @param perTurn Whether a chain of extra turns counts as a single move.
+     */
+    public static long perft(KalahState ks, int depth, boolean perTurn) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Negative depth " + depth);
+        }
+        return perTurn ? countTurns(ks, depth) : countPlies(ks, depth);
+    }
+
+    /**
+     * Like perft(), but counts the subtrees of the first moves in parallel on the given pool.
+     * The board is unchanged afterwards.
+     * @param ks The board to start from.
+     * @param depth Number of moves.
+     * @param perTurn Whether a chain of extra turns counts as a single move.
+     * @param pool The pool to count on.
+     */
+    public static long perftParallel(KalahState ks, int depth, boolean perTurn, ForkJoinPool pool) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Negative depth " + depth);
+        }
+        return pool.invoke(new Task(new KalahState(ks), depth, perTurn));
+    }
+
+    private static long countPlies(KalahState ks, int depth) {
+        if (depth == 0) {
+            return 1;
+        } else if (depth == 1) {
+            // every legal move leads to exactly one leaf
+            return ks.numberOfMoves();
+        }
+
+        long count = 0;
+        for (int move = 0; move < ks.getBoardSize(); move++) {
+            if (ks.isLegalMove(move)) {
+                long undo = ks.doMove(move);
+                count += countPlies(ks, depth - 1);
+                ks.undoMove(undo);
+            }
+        }
+        return count;
+    }
+
+    private static long countTurns(KalahState ks, int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+
+        KalahState.Player player = ks.getSideToMove();
+        long count = 0;
+        for (int move = 0; move < ks.getBoardSize(); move++) {
+            if (ks.isLegalMove(move)) {
+                long undo = ks.doMove(move);
+                // an extra turn continues the current move
+                count += countTurns(ks, ks.getSideToMove() == player ? depth : depth - 1);
+                ks.undoMove(undo);
+            }
+        }
+        return count;
+    }
+
+    // counts the subtree of one board, forking a task per move until few moves are left
+    private static final class Task extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final KalahState ks;
+        private final int depth;
+        private final boolean perTurn;
+
+        Task(KalahState ks, int depth, boolean perTurn) {
+            this.ks = ks;
+            this.depth = depth;
+            this.perTurn = perTurn;
+        }
+
+        @Override
+        protected Long compute() {
+            if (depth <= SPLIT_DEPTH) {
+                return perft(ks, depth, perTurn);
+            }
+
+            ArrayList<Task> tasks = new ArrayList<>(ks.getBoardSize());
+            for (int move = 0; move < ks.getBoardSize(); move++) {
+                if (ks.isLegalMove(move)) {
+                    KalahState child = new KalahState(ks);
+                    child.doMove(move);
+                    boolean extraTurn = child.getSideToMove() == ks.getSideToMove();
+                    tasks.add(new Task(child, perTurn && extraTurn ? depth : depth - 1, perTurn));
+                }
+            }
+            invokeAll(tasks);
+
+            long count = 0;
+            for (Task task : tasks) {
+                count += task.join();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Checks the counts for the standard setups against the reference and prints the throughput.
+     * Arguments (all optional): maximum depth (default: all references), number of threads for the parallel
+     * variant (default: number of processors).
+     * @param args Command line arguments.
+     */
+    public static void main(String[] args) {
+        int maxDepth = args.length > 0 ? Integer.parseInt(args[0]) : Integer.MAX_VALUE;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        boolean ok = true;
+        for (long[] ref : REFERENCE) {
+            int depth = (int) ref[3];
+            if (depth <= maxDepth) {
+                ok &= run(new KalahState((int) ref[0], (int) ref[1]), depth, ref[2] == 1, ref[4], pool);
+            }
+        }
+        pool.shutdown();
+
+        System.out.println(ok ? "All counts match" : "COUNTS DIFFER FROM THE REFERENCE");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    // counts serially and in parallel, prints both throughputs and returns whether both counts are correct
+    private static boolean run(KalahState ks, int depth, boolean perTurn, long expected, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        long serial = perft(ks, depth, perTurn);
+        long serialNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long parallel = perftParallel(ks, depth, perTurn, pool);
+        long parallelNanos = System.nanoTime() - start;
+
+        boolean ok = serial == expected && parallel == expected;
+        System.out.printf("%dx%d %s %2d: %,13d %s  serial %,10.0f leaves/s  parallel %,10.0f leaves/s%n",
+                ks.getBoardSize(), ks.getHouse(KalahState.Player.SOUTH, 0), perTurn ? "turns" : "plies", depth,
+                serial, ok ? "ok" : "expected " + expected + ", parallel " + parallel,
+                serial / (serialNanos / 1e9), parallel / (parallelNanos / 1e9));
+        return ok;
+    }
+}
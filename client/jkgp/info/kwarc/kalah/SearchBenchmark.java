@@ -0,0 +1,150 @@
+package info.kwarc.kalah;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Compares the parallel searches with the single-threaded one on the same set of positions,
+ * to pick the best kind of search for a board size and number of threads.
+ * Each search runs iterative deepening to a fixed depth on every position, starting with an empty transposition table.
+ * All positions are searched twice and only the second round is timed, so the JIT compiler is warmed up.
+ * Positions are reached by random moves from the start position, the same ones on every run.
+ * Before timing, YBWC is checked to find the same scores as the single-threaded search with the same settings.
+ */
+public final class SearchBenchmark {
+
+    // moves from the start position to the positions of the set
+    private static final int MIN_MOVES = 4, MAX_MOVES = 20;
+
+    // depth of the searches comparing the scores, without a table
+    private static final int CHECK_DEPTH = 8;
+
+    private SearchBenchmark() {
+    }
+
+    /**
+     * Returns a set of undecided positions of the given board, the same ones for the same arguments.
+     * @param boardSize Number of houses per player.
+     * @param seeds Initial number of seeds per house.
+     * @param count Number of positions.
+     * @param seed Seed of the random moves.
+     */
+    public static ArrayList<KalahState> positions(int boardSize, int seeds, int count, long seed) {
+        Random rng = new Random(seed);
+        ArrayList<KalahState> positions = new ArrayList<>(count);
+        MoveList moves = new MoveList(boardSize);
+        while (positions.size() < count) {
+            KalahState ks = new KalahState(boardSize, seeds);
+            int n = MIN_MOVES + rng.nextInt(MAX_MOVES - MIN_MOVES + 1);
+            for (int i = 0; i < n && ks.result() == KalahState.GameResult.UNDECIDED; i++) {
+                ks.getMoves(moves);
+                ks.doMove(moves.get(rng.nextInt(moves.size())));
+            }
+            if (ks.result() == KalahState.GameResult.UNDECIDED) {
+                positions.add(ks);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Runs the benchmark and prints time and nodes of each search.
+     * Arguments (all optional): houses (default 6), seeds per house (default 6), depth (default 14),
+     * number of threads (default: number of processors), number of positions (default 20).
+     * @param args Command line arguments.
+     * @throws IOException Never.
+     */
+    public static void main(String[] args) throws IOException {
+        int boardSize = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        int seeds = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 14;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        int count = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+
+        ArrayList<KalahState> positions = positions(boardSize, seeds, count, 1);
+        System.out.printf("%d positions of %dx%d, depth %d, %d threads%n", count, boardSize, seeds, depth, threads);
+
+        checkScores(positions, threads);
+        TranspositionTable tt = new TranspositionTable(64 << 20);
+
+        // single-threaded reference
+        SearchEngine engine = new SearchEngine(() -> false);
+        engine.setTranspositionTable(tt);
+        long single = measure("single thread", positions, tt, 0, ks -> {
+            long nodes = engine.getNodes();
+            engine.iterate(ks, 1, depth, null);
+            return engine.getNodes() - nodes;
+        });
+
+        // threads sharing a table
+        LazySmpSearch smp = new LazySmpSearch(() -> false, tt, threads - 1);
+        measure("Lazy SMP", positions, tt, single, ks -> {
+            smp.search(ks, depth, null);
+            return smp.getTotalNodes();
+        });
+
+        // threads splitting the tree
+        YbwcSearch ybwc = new YbwcSearch(() -> false, threads);
+        ybwc.setTranspositionTable(tt);
+        measure("YBWC", positions, tt, single, ks -> {
+            long nodes = ybwc.getNodes();
+            ybwc.iterate(ks, 1, depth, null);
+            return ybwc.getNodes() - nodes;
+        });
+    }
+
+    /**
+     * Checks that YBWC finds the same score as the single-threaded search on every position, both searching to
+     * a fixed depth without a table and with the same settings other than the defaults. Without reductions,
+     * futility pruning and limits of the quiescence search, the score doesn't depend on the order nodes are searched.
+     * @param positions The positions.
+     * @param threads Number of threads of YBWC.
+     * @throws IllegalStateException If a score differs.
+     */
+    public static void checkScores(ArrayList<KalahState> positions, int threads) {
+        SearchEngine engine = new SearchEngine(() -> false);
+        YbwcSearch ybwc = new YbwcSearch(() -> false, threads);
+        for (int limit : new int[] {0, Integer.MAX_VALUE}) {
+            for (SearchEngine search : new SearchEngine[] {engine, ybwc}) {
+                search.setQuiescenceNodeLimit(limit);
+                search.setReductions(new int[0][]);
+                search.setFutilityMargins(new int[0]);
+            }
+            for (KalahState ks : positions) {
+                int expected = engine.search(ks, CHECK_DEPTH);
+                int score = ybwc.search(ks, CHECK_DEPTH);
+                if (score != expected) {
+                    throw new IllegalStateException("YBWC scores " + score + " instead of " + expected +
+                            " at depth " + CHECK_DEPTH + " with quiescence node limit " + limit + " on " + ks);
+                }
+            }
+        }
+        System.out.printf("YBWC scores match the single thread at depth %d%n", CHECK_DEPTH);
+    }
+
+    // one search of one position, returns the number of nodes
+    private interface Run {
+        long search(KalahState ks) throws IOException;
+    }
+
+    // runs the search on all positions twice, the first time to warm up the JIT compiler,
+    // prints the results of the second time and returns the time it took
+    private static long measure(String name, ArrayList<KalahState> positions, TranspositionTable tt,
+                                long singleNanos, Run run) throws IOException {
+        long nanos = 0, nodes = 0;
+        for (int round = 0; round < 2; round++) {
+            nanos = 0;
+            nodes = 0;
+            for (KalahState ks : positions) {
+                tt.clear();
+                long start = System.nanoTime();
+                nodes += run.search(ks);
+                nanos += System.nanoTime() - start;
+            }
+        }
+        System.out.printf("%-14s %8.3f s %,14d nodes %,12.0f nodes/s  speedup %.2f%n",
+                name, nanos / 1e9, nodes, nodes / (nanos / 1e9), singleNanos == 0 ? 1 : (double) singleNanos / nanos);
+        return nanos;
+    }
+}
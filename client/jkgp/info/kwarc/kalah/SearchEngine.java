@@ -0,0 +1,714 @@
+package info.kwarc.kalah;
+
+import info.kwarc.kalah.KalahState.GameResult;
+import info.kwarc.kalah.KalahState.Player;
+
+import java.io.IOException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Alpha-beta search in negamax form, making and undoing moves on a single board.
+ * Scores are from the point of view of the player to move and estimate the difference between the stores at the
+ * end of the game: the final difference for games which are over, the store lead at the horizon.
+ * Seeds never leave a store, so the final difference of every position lies between the store lead minus and plus
+ * the seeds left in the houses. The window of every node is narrowed to these bounds, and a node is cut off right
+ * away if that leaves it empty. Results which don't depend on the horizon are proven and kept in the
+ * TranspositionTable for any depth, e.g. late in the game positions are solved rather than estimated.
+ * Positions covered by an optional EndgameDatabase are scored by it instead of being searched.
+ * The horizon isn't a fixed depth: a quiescence search goes on with extra turns and captures beyond it,
+ * so positions aren't scored halfway through a chain of extra turns or right before a capture.
+ * In Kalah a move doesn't always hand the turn to the other player. After an extra turn the child is scored
+ * from the same point of view, so its score is neither negated nor is the window swapped.
+ * Depth is counted in plies, e.g. every move counts including the ones after an extra turn.
+ * The search is a Principal Variation Search: only the first move of a node is searched with the full window,
+ * the others with a null window proving they are worse, and searched again if that fails.
+ * Quiet moves (neither extra turns nor captures) late in the order are searched with reduced depth first,
+ * and again with full depth if they turn out better than expected. Close to the horizon, quiet moves are skipped
+ * if even the largest gain still possible can't lift the score to alpha (futility pruning).
+ * Iterative deepening starts each iteration with an aspiration window around the score of the previous one,
+ * or alternatively converges on the score with null window searches only, see Driver.
+ * Results are kept in an optional TranspositionTable, which may be shared by several engines.
+ * An engine is meant for one thread, use one engine per thread.
+ */
+public class SearchEngine {
+
+    /** Bound beyond every score, for searching with a full window. */
+    public static final int INFINITY = 1_000_000;
+
+    // number of nodes between two checks of the stop condition, a power of 2
+    private static final int STOP_CHECK_INTERVAL = 1024;
+
+    // iterations from this depth on start with an aspiration window of this half-width, in seeds
+    private static final int ASPIRATION_DEPTH = 4;
+    private static final int ASPIRATION_WINDOW = 2;
+
+    /** Default of setQuiescenceNodeLimit(). */
+    public static final int DEFAULT_QUIESCENCE_NODE_LIMIT = 64;
+
+    /** Default of setReductions(), see reductionTable(). */
+    public static final int[][] DEFAULT_REDUCTIONS = reductionTable(0.5, 2.5, 32, 16);
+
+    /** Default of setFutilityMargins(). */
+    public static final int[] DEFAULT_FUTILITY_MARGINS = {0, 2, 6};
+
+    /** How iterative deepening searches the root in each iteration. */
+    public enum Driver {
+        /** A window around the score of the previous iteration, widened when the score is outside of it. */
+        ASPIRATION,
+
+        /**
+         * MTD(f): null window searches only, each one proving the score to be above or below a guess,
+         * until the bounds meet. The first guess is the score of the previous iteration.
+         * Relies on the transposition table to avoid searching the same nodes again in every pass.
+         */
+        MTDF,
+    }
+
+    private final BooleanSupplier stop;
+    private TranspositionTable tt;
+    private EndgameDatabase endgame;
+    private Driver driver;
+
+    private KalahState board;
+    private MoveList[] moveLists; // one list of moves per ply, reused for every node at that ply
+    private MoveOrdering ordering;
+    private long perturbation; // seed for perturbing the move ordering, 0 for none
+
+    private int quiescenceNodeLimit;
+    private int[][] reductions;
+    private int[] futilityMargins;
+    private int quiescenceNodesLeft; // in the quiescence search of the current horizon node
+
+    private long nodes, quiescenceNodes;
+    private boolean aborted;
+    private int bestMove;
+
+    // number of scores based on the horizon so far, a search which doesn't increase it has a proven result
+    private long guesses;
+    private boolean boundProven; // the score of the last search() is a proven bound, or exact if inside the window
+    private boolean proven; // the score of the last search() or iteration is exact and proven
+
+    // re-searches after a null window failed high, after an aspiration window failed low and failed high
+    private long pvsResearches, aspirationFailLows, aspirationFailHighs;
+
+    // reduced moves searched again with full depth, quiet moves skipped by futility pruning
+    private long lmrResearches, futilityPrunes;
+
+    // null window searches of the last iteration with MTD(f) and the best move it found
+    private int mtdfPasses;
+    private int mtdfMove;
+
+    /**
+     * Creates an engine which aborts the search as soon as the given condition is true.
+     * @param stop Stop condition, e.g. Agent.shouldStop(), checked every few microseconds.
+     */
+    public SearchEngine(BooleanSupplier stop) {
+        this.stop = stop;
+        this.moveLists = new MoveList[0];
+        this.driver = Driver.ASPIRATION;
+        this.quiescenceNodeLimit = DEFAULT_QUIESCENCE_NODE_LIMIT;
+        this.reductions = DEFAULT_REDUCTIONS;
+        this.futilityMargins = DEFAULT_FUTILITY_MARGINS;
+    }
+
+    /**
+     * Sets how iterative deepening searches the root, ASPIRATION by default.
+     * @param driver The driver.
+     */
+    public void setDriver(Driver driver) {
+        this.driver = driver;
+    }
+
+    /**
+     * Limits the quiescence search below each node at the horizon to the given number of nodes, so long chains of
+     * extra turns and captures can't blow up the search. Once the limit is reached, positions are scored as they are.
+     * @param limit Maximum number of nodes, 0 to score the positions at the horizon without quiescence search.
+     */
+    public void setQuiescenceNodeLimit(int limit) {
+        quiescenceNodeLimit = limit;
+    }
+
+    /**
+     * Sets the late move reductions: a quiet move at position i of the ordered moves of a node with remaining depth d
+     * is searched reduced by reductions[d][i] plies first. Depths and positions beyond the table use its last row
+     * and column. The table isn't copied, so don't modify it afterwards.
+     * @param reductions The reductions in plies, see reductionTable(), an empty table for none.
+     */
+    public void setReductions(int[][] reductions) {
+        this.reductions = reductions;
+    }
+
+    /**
+     * Returns a table of late move reductions growing with the logarithms of depth and position of a move:
+     * base + ln(depth) * ln(position + 1) / divisor, rounded down. The first move of a node is never reduced and
+     * neither are moves with less than 3 plies remaining.
+     * @param base Added to every reduction, e.g. 0.5 to round up halfway.
+     * @param divisor The larger, the smaller the reductions.
+     * @param depths Number of rows, e.g. depths covered by the table.
+     * @param moves Number of columns, e.g. positions of moves covered by the table.
+     */
+    public static int[][] reductionTable(double base, double divisor, int depths, int moves) {
+        int[][] table = new int[depths][moves];
+        for (int depth = 3; depth < depths; depth++) {
+            for (int i = 1; i < moves; i++) {
+                int r = (int) (base + Math.log(depth) * Math.log(i + 1) / divisor);
+                table[depth][i] = Math.max(0, Math.min(r, depth - 2)); // at least one ply remains
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Sets the futility margins: at a node with remaining depth d below margins.length, quiet moves are skipped if
+     * the store lead plus margins[d] is still at most alpha. The margin is capped by the seeds left in the houses,
+     * the store lead can't change by more than that. The array isn't copied, so don't modify it afterwards.
+     * @param margins Margins in seeds by remaining depth, an empty array for no futility pruning.
+     */
+    public void setFutilityMargins(int[] margins) {
+        this.futilityMargins = margins;
+    }
+
+    /**
+     * Sets the table to look up and store results in, null for none.
+     * Don't forget to call TranspositionTable.newSearch() before a new search.
+     * @param tt The table, may be shared with engines on other threads.
+     */
+    public void setTranspositionTable(TranspositionTable tt) {
+        this.tt = tt;
+    }
+
+    /**
+     * Sets the database to look up endgame positions in, null for none.
+     * @param endgame The database, may be shared with engines on other threads.
+     */
+    public void setEndgameDatabase(EndgameDatabase endgame) {
+        this.endgame = endgame;
+    }
+
+    /**
+     * Makes the engine order moves of equal priority slightly differently, so engines sharing a transposition table
+     * don't all search the same moves first.
+     * @param seed Seed of the perturbation, 0 for the regular ordering.
+     */
+    public void setOrderingPerturbation(long seed) {
+        perturbation = seed;
+        if (ordering != null) {
+            ordering.setPerturbation(seed);
+        }
+    }
+
+    /**
+     * Iterative deepening: searches the given board to increasing depths until the search is aborted,
+     * the maximum depth is reached or the result of the game is decided.
+     * @param ks The board to search, it is not modified.
+     * @param firstDepth Depth of the first iteration, at least 1.
+     * @param maxDepth Depth of the last iteration.
+     * @param listener Receives the result of each completed iteration, may be null.
+     * @throws IOException If the listener throws.
+     */
+    public void iterate(KalahState ks, int firstDepth, int maxDepth, SearchListener listener) throws IOException {
+        int previous = 0; // score of the previous iteration
+        for (int depth = firstDepth; depth <= maxDepth; depth++) {
+
+            int score;
+            if (driver == Driver.MTDF) {
+                score = mtdf(ks, depth, previous);
+            } else if (depth < ASPIRATION_DEPTH || depth == firstDepth) {
+                score = search(ks, depth);
+            } else {
+                score = aspirationSearch(ks, depth, previous);
+            }
+
+            if (isAborted()) {
+                break; // search has been aborted
+            }
+
+            if (listener != null) {
+                int move = driver == Driver.MTDF && mtdfMove >= 0 ? mtdfMove : getBestMove();
+                listener.iterationFinished(depth, score, move);
+            }
+
+            if (isProven()) {
+                break; // successive searches would get the same result
+            }
+            previous = score;
+        }
+    }
+
+    // searches with a small window around the expected score, widening it step by step while the search fails
+    private int aspirationSearch(KalahState ks, int depth, int expected) {
+        int delta = ASPIRATION_WINDOW;
+        int alpha = Math.max(expected - delta, -INFINITY);
+        int beta = Math.min(expected + delta, INFINITY);
+        while (true) {
+            int score = search(ks, depth, alpha, beta);
+            if (isAborted()) {
+                return score;
+            }
+
+            if (score <= alpha && alpha > -INFINITY) {
+                aspirationFailLows++;
+            } else if (score >= beta && beta < INFINITY) {
+                aspirationFailHighs++;
+            } else {
+                return score;
+            }
+
+            // the failed score is a bound of the real score, the window is widened beyond it
+            delta *= 2;
+            if (score <= alpha) {
+                alpha = Math.max(score - delta, -INFINITY);
+            } else {
+                beta = Math.min(score + delta, INFINITY);
+            }
+        }
+    }
+
+    // MTD(f), null window searches moving the bounds of the score towards each other, starting at the guess
+    private int mtdf(KalahState ks, int depth, int guess) {
+        int lower = -INFINITY;
+        int upper = INFINITY;
+        boolean lowerProven = false, upperProven = false;
+        int score = guess;
+        mtdfMove = -1;
+        mtdfPasses = 0;
+        while (lower < upper) {
+            int beta = score == lower ? score + 1 : score;
+            score = search(ks, depth, beta - 1, beta);
+            mtdfPasses++;
+            if (isAborted()) {
+                return score;
+            }
+
+            if (score < beta) {
+                upper = score;
+                upperProven = boundProven;
+            } else {
+                lower = score;
+                lowerProven = boundProven;
+                // only a search failing high knows a move reaching the score
+                mtdfMove = getBestMove();
+            }
+        }
+        proven = lowerProven && upperProven;
+        return score;
+    }
+
+    /**
+     * Searches the given board to the given depth with a full window.
+     * @param ks The board to search, it is not modified.
+     * @param depth Number of plies to search, at least 1.
+     * @return The score of the board, meaningless if the search has been aborted, see isAborted().
+     */
+    public int search(KalahState ks, int depth) {
+        return search(ks, depth, -INFINITY, INFINITY);
+    }
+
+    /**
+     * Searches the given board to the given depth with the given window.
+     * Scores outside the window are bounds: a score of at most alpha is an upper bound of the real score
+     * and a score of at least beta is a lower bound.
+     * @param ks The board to search, it is not modified.
+     * @param depth Number of plies to search, at least 1.
+     * @param alpha Lower end of the window.
+     * @param beta Upper end of the window.
+     * @return The score of the board, meaningless if the search has been aborted, see isAborted().
+     */
+    public int search(KalahState ks, int depth, int alpha, int beta) {
+        assert depth >= 1 && alpha < beta;
+
+        board = new KalahState(ks);
+        prepare();
+        aborted = false;
+        bestMove = board.lowestLegalMove();
+
+        ordering.startIteration(board.zobristKey());
+        long guessesBefore = guesses;
+        int score = negamax(0, depth, alpha, beta);
+        if (!aborted) {
+            ordering.finishIteration();
+        }
+        finishSearch(score, alpha, beta, guesses == guessesBefore);
+        return score;
+    }
+
+    // records whether the score of a search with the given window is proven, e.g. no score of it has been a guess
+    void finishSearch(int score, int alpha, int beta, boolean noGuesses) {
+        boundProven = !isAborted() && noGuesses;
+        proven = boundProven && score > alpha && score < beta;
+    }
+
+    /**
+     * Searches a node below the root on the given board, e.g. a subtree of a parallel search.
+     * The board is modified during the search but unchanged afterwards.
+     * @param ks The board of the node.
+     * @param ply Distance of the node from the root, at least 1.
+     * @param depth Number of plies to search.
+     * @param alpha Lower end of the window.
+     * @param beta Upper end of the window.
+     * @return The score of the board, meaningless if the search has been aborted, see isAborted().
+     */
+    int searchNode(KalahState ks, int ply, int depth, int alpha, int beta) {
+        assert ply >= 1 && alpha < beta;
+
+        board = ks;
+        prepare();
+        aborted = false;
+        int score = negamax(ply, depth, alpha, beta);
+        board = null;
+        return score;
+    }
+
+    // creates move lists and ordering for the size of the board
+    private void prepare() {
+        if (moveLists.length > 0 && moveLists[0].capacity() != board.getBoardSize()) {
+            moveLists = new MoveList[0];
+        }
+        if (ordering == null || ordering.getBoardSize() != board.getBoardSize()) {
+            ordering = new MoveOrdering(board.getBoardSize());
+            ordering.setPerturbation(perturbation);
+        }
+    }
+
+    /**
+     * Returns true iff the game is over, e.g. the store lead is the final score.
+     * A result which is merely known (KNOWN_WIN, KNOWN_LOSS) doesn't count, its final score isn't.
+     * @param result The result of the board.
+     */
+    static boolean isOver(GameResult result) {
+        return result == GameResult.WIN || result == GameResult.LOSS || result == GameResult.DRAW;
+    }
+
+    private int negamax(int ply, int depth, int alpha, int beta) {
+        if ((++nodes & (STOP_CHECK_INTERVAL - 1)) == 0 && stop.getAsBoolean()) {
+            aborted = true;
+        }
+        if (aborted) {
+            return 0;
+        }
+
+        // is the game over?
+        int lead = board.getStoreLead();
+        if (isOver(board.result())) {
+            return lead;
+        }
+
+        // the final score is within the seeds left in the houses, the root has to come up with a move though
+        int seeds = board.getHouseSum();
+        if (ply > 0) {
+            if (endgame != null) {
+                int value = endgame.value(board);
+                if (value != EndgameDatabase.NOT_FOUND) {
+                    return lead + value;
+                }
+            }
+            if (lead - seeds >= beta) {
+                return lead - seeds;
+            }
+            if (lead + seeds <= alpha) {
+                return lead + seeds;
+            }
+            alpha = Math.max(alpha, lead - seeds);
+            beta = Math.min(beta, lead + seeds);
+        }
+
+        if (depth == 0) {
+            quiescenceNodesLeft = quiescenceNodeLimit;
+            return quiescence(ply, alpha, beta);
+        }
+
+        // has the position been searched deep enough before, or even solved?
+        long key = board.zobristKey();
+        int hashMove = -1;
+        if (tt != null) {
+            long entry = tt.probe(key);
+            if (entry != 0) {
+                hashMove = TranspositionTable.move(entry);
+                // not at the root, which has to come up with a move
+                if (ply > 0 && TranspositionTable.depth(entry) >= depth) {
+                    int score = TranspositionTable.score(entry);
+                    int bound = TranspositionTable.bound(entry);
+                    if (bound == TranspositionTable.EXACT ||
+                            bound == TranspositionTable.LOWER && score >= beta ||
+                            bound == TranspositionTable.UPPER && score <= alpha) {
+                        if (TranspositionTable.depth(entry) != TranspositionTable.PROVEN) {
+                            guesses++;
+                        }
+                        return score;
+                    }
+                }
+            }
+        }
+        long guessesBefore = guesses;
+
+        MoveList moves = moveList(ply);
+        board.getMoves(moves);
+        Player player = board.getSideToMove();
+
+        // entries may belong to another position with the same key, so the move has to be legal as well
+        if (hashMove >= board.getBoardSize() || hashMove >= 0 && !board.isLegalMove(hashMove)) {
+            hashMove = -1;
+        }
+        ordering.order(board, moves, hashMove, ply);
+
+        // is the node hopeless unless a move wins seeds right away? only on null windows, where the score is a bound
+        int futilityScore = -INFINITY;
+        if (depth < futilityMargins.length && ply > 0 && beta - alpha == 1) {
+            int score = lead + Math.min(futilityMargins[depth], seeds);
+            if (score <= alpha) {
+                futilityScore = score;
+            }
+        }
+
+        int alphaOrig = alpha;
+        int best = -INFINITY;
+        int bestHere = -1;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            boolean quiet = i > 0 && !board.isDoubleMove(move) && !board.isCaptureMove(move);
+            if (quiet && futilityScore > -INFINITY) {
+                // its score is a bound, at most futilityScore
+                futilityPrunes++;
+                guesses++;
+                best = Math.max(best, futilityScore);
+                continue;
+            }
+
+            long undo = board.doMove(move);
+            boolean extraTurn = board.getSideToMove() == player;
+
+            int score;
+            if (i == 0) {
+                score = child(extraTurn, ply, depth, alpha, beta);
+            } else {
+                // prove that the move is no better than the best one so far, with reduced depth if it's quiet and late
+                int reduction = quiet ? reduction(depth, i) : 0;
+                score = child(extraTurn, ply, depth - reduction, alpha, alpha + 1);
+                if (reduction > 0 && score > alpha && !aborted) {
+                    lmrResearches++;
+                    score = child(extraTurn, ply, depth, alpha, alpha + 1);
+                }
+                if (score > alpha && score < beta && !aborted) {
+                    // it is, find out by how much
+                    pvsResearches++;
+                    score = child(extraTurn, ply, depth, alpha, beta);
+                }
+            }
+
+            board.undoMove(undo);
+
+            if (aborted) {
+                return 0;
+            }
+
+            if (ply == 0) {
+                ordering.rootScore(move, score);
+            }
+
+            if (score > best) {
+                best = score;
+                bestHere = move;
+                if (ply == 0) {
+                    bestMove = move;
+                }
+                if (best > alpha) {
+                    alpha = best;
+                    if (alpha >= beta) {
+                        ordering.cutoff(board, move, i, ply, depth);
+                        break; // the opponent won't allow this position
+                    }
+                }
+            }
+        }
+
+        if (tt != null) {
+            // a result without guesses holds for any depth
+            int stored = guesses == guessesBefore ? TranspositionTable.PROVEN : Math.min(depth, TranspositionTable.PROVEN - 1);
+            if (best <= alphaOrig) {
+                // all moves failed low, none of them is known to be the best
+                tt.store(key, stored, TranspositionTable.UPPER, best, -1);
+            } else {
+                tt.store(key, stored, best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT, best, bestHere);
+            }
+        }
+        return best;
+    }
+
+    // late move reduction of a quiet move at the given position of the ordered moves
+    private int reduction(int depth, int index) {
+        if (reductions.length == 0) {
+            return 0;
+        }
+        int[] row = reductions[Math.min(depth, reductions.length - 1)];
+        return row.length == 0 ? 0 : Math.min(row[Math.min(index, row.length - 1)], depth - 1);
+    }
+
+    // Quiescence search: only extra turns and captures are searched, the player to move may as well "stand pat",
+    // e.g. make a quiet move instead, which keeps the store lead. Results aren't stored in the transposition table.
+    private int quiescence(int ply, int alpha, int beta) {
+        int standPat = board.getStoreLead();
+        guesses++;
+        if (quiescenceNodesLeft <= 0) {
+            return standPat;
+        }
+        quiescenceNodesLeft--;
+        if (standPat >= beta) {
+            return standPat;
+        }
+
+        // extra turns and captures are ordered before all quiet moves
+        MoveList moves = moveList(ply);
+        board.getMoves(moves);
+        ordering.order(board, moves, -1, ply);
+
+        Player player = board.getSideToMove();
+        int best = standPat;
+        alpha = Math.max(alpha, standPat);
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            if (!board.isDoubleMove(move) && !board.isCaptureMove(move)) {
+                break;
+            }
+            if ((++nodes & (STOP_CHECK_INTERVAL - 1)) == 0 && stop.getAsBoolean()) {
+                aborted = true;
+            }
+            if (aborted) {
+                return 0;
+            }
+            quiescenceNodes++;
+
+            long undo = board.doMove(move);
+            int score = board.getSideToMove() == player ?
+                    quiescenceChild(ply, alpha, beta) :
+                    -quiescenceChild(ply, -beta, -alpha);
+            board.undoMove(undo);
+
+            if (score > best) {
+                best = score;
+                if (best > alpha) {
+                    alpha = best;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    // final score and bounds as in negamax(), then the quiescence search
+    private int quiescenceChild(int ply, int alpha, int beta) {
+        int lead = board.getStoreLead();
+        if (isOver(board.result())) {
+            return lead;
+        }
+        if (endgame != null) {
+            int value = endgame.value(board);
+            if (value != EndgameDatabase.NOT_FOUND) {
+                return lead + value;
+            }
+        }
+        int seeds = board.getHouseSum();
+        if (lead - seeds >= beta) {
+            return lead - seeds;
+        }
+        if (lead + seeds <= alpha) {
+            return lead + seeds;
+        }
+        return quiescence(ply + 1, Math.max(alpha, lead - seeds), Math.min(beta, lead + seeds));
+    }
+
+    // searches the child reached by a move, returns its score from the point of view of the player who moved
+    private int child(boolean extraTurn, int ply, int depth, int alpha, int beta) {
+        if (extraTurn) {
+            // same point of view and same window
+            return negamax(ply + 1, depth - 1, alpha, beta);
+        } else {
+            return -negamax(ply + 1, depth - 1, -beta, -alpha);
+        }
+    }
+
+    // list of moves for the given ply, lists are created on first use
+    private MoveList moveList(int ply) {
+        if (ply >= moveLists.length) {
+            MoveList[] lists = new MoveList[ply + 16];
+            System.arraycopy(moveLists, 0, lists, 0, moveLists.length);
+            for (int i = moveLists.length; i < lists.length; i++) {
+                lists[i] = new MoveList(board.getBoardSize());
+            }
+            moveLists = lists;
+        }
+        return moveLists[ply];
+    }
+
+    /** Returns the best move of the last search, only meaningful if it hasn't been aborted. */
+    public int getBestMove() {
+        return bestMove;
+    }
+
+    /**
+     * Returns true iff the score of the last search or iteration is the final difference between the stores
+     * if both players play perfectly, e.g. it is independent of the depth. Iterative deepening stops there.
+     */
+    public boolean isProven() {
+        return proven;
+    }
+
+    /**
+     * Returns the number of scores based on the horizon rather than the end of the game so far.
+     * A search which doesn't increase it has a proven result.
+     */
+    long getGuesses() {
+        return guesses;
+    }
+
+    /** Returns true iff the last search has been aborted by the stop condition. */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /** Returns the move ordering of the engine, e.g. for its statistics, null before the first search. */
+    public MoveOrdering getMoveOrdering() {
+        return ordering;
+    }
+
+    /** Returns the number of moves searched again after failing high on a null window so far, over all searches. */
+    public long getPvsResearches() {
+        return pvsResearches;
+    }
+
+    /** Returns the number of reduced moves searched again with full depth so far, over all searches. */
+    public long getLmrResearches() {
+        return lmrResearches;
+    }
+
+    /** Returns the number of quiet moves skipped by futility pruning so far, over all searches. */
+    public long getFutilityPrunes() {
+        return futilityPrunes;
+    }
+
+    /** Returns the number of iterations searched again after the aspiration window failed low so far. */
+    public long getAspirationFailLows() {
+        return aspirationFailLows;
+    }
+
+    /** Returns the number of iterations searched again after the aspiration window failed high so far. */
+    public long getAspirationFailHighs() {
+        return aspirationFailHighs;
+    }
+
+    /** Returns the number of null window searches of the last iteration searched with MTD(f). */
+    public int getMtdfPasses() {
+        return mtdfPasses;
+    }
+
+    /** Returns the number of nodes searched beyond the horizon so far, over all searches, included in getNodes(). */
+    public long getQuiescenceNodes() {
+        return quiescenceNodes;
+    }
+
+    /** Returns the number of nodes searched by this engine so far, over all searches. */
+    public long getNodes() {
+        return nodes;
+    }
+}
@@ -0,0 +1,19 @@
+package info.kwarc.kalah;
+
+import java.io.IOException;
+
+/**
+ * Receives the results of iterative deepening, see SearchEngine.iterate().
+ */
+@FunctionalInterface
+public interface SearchListener {
+
+    /**
+     * Called after each completed iteration, on the thread running the iterative deepening.
+     * @param depth Depth of the iteration.
+     * @param score Score of the root from the point of view of the player to move.
+     * @param move Best move found. Moves are indexed from 0 to N-1 in sowing direction.
+     * @throws IOException If e.g. submitting the move fails, ends the iterative deepening.
+     */
+    void iterationFinished(int depth, int score, int move) throws IOException;
+}
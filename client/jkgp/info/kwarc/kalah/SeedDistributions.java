@@ -0,0 +1,216 @@
+package info.kwarc.kalah;
+
+import info.kwarc.kalah.KalahState.Player;
+
+/**
+ * Perfect hash of the distributions of seeds over the houses of a board, for dense tables like EndgameDatabase.
+ * The distributions of s seeds over the 2N houses, the houses of the player to move first, are ranked from 0 to
+ * size(s) - 1 = C(s + 2N - 1, 2N - 1) - 1 in lexicographic order. Tables covering several numbers of seeds
+ * put them one after the other, see offset() and index(). The seeds in the stores are added on top if needed:
+ * with a fixed total number of seeds, the store of the player to move determines the other one, see
+ * rankWithStore(). Ranking and unranking don't allocate, so they can be used in the innermost loops.
+ */
+public final class SeedDistributions {
+
+    private final int boardSize;
+    private final int houses;
+    private final int maxSeeds;
+    private final long[][] binomials; // binomials[n][k] = C(n, k) for k < 2N
+    private final long[] offsets; // first index of each number of seeds
+
+    /**
+     * Creates the ranking of distributions of up to the given number of seeds.
+     * @param boardSize Number of houses per player.
+     * @param maxSeeds Greatest number of seeds in the houses.
+     * @throws IllegalArgumentException If there are more than Long.MAX_VALUE distributions.
+     */
+    public SeedDistributions(int boardSize, int maxSeeds) {
+        this.boardSize = boardSize;
+        this.houses = 2 * boardSize;
+        this.maxSeeds = maxSeeds;
+
+        // Pascal's triangle
+        int n = maxSeeds + houses;
+        binomials = new long[n + 1][houses];
+        try {
+            for (int i = 0; i <= n; i++) {
+                binomials[i][0] = 1;
+                for (int k = 1; k <= Math.min(i, houses - 1); k++) {
+                    binomials[i][k] = Math.addExact(binomials[i - 1][k - 1], binomials[i - 1][k]);
+                }
+            }
+
+            offsets = new long[maxSeeds + 2];
+            for (int s = 0; s <= maxSeeds; s++) {
+                offsets[s + 1] = Math.addExact(offsets[s], size(s));
+            }
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Too many distributions of " + maxSeeds + " seeds", e);
+        }
+    }
+
+    /** Returns the number of houses per player. */
+    public int getBoardSize() {
+        return boardSize;
+    }
+
+    /** Returns the greatest number of seeds in the houses covered. */
+    public int getMaxSeeds() {
+        return maxSeeds;
+    }
+
+    /**
+     * Returns the number of distributions of the given number of seeds over the houses.
+     * @param seeds Number of seeds in the houses, at most getMaxSeeds().
+     */
+    public long size(int seeds) {
+        return binomials[seeds + houses - 1][houses - 1];
+    }
+
+    /**
+     * Returns the number of distributions of fewer seeds than the given number, e.g. the index of the first
+     * distribution of that many seeds in a table of all numbers of seeds.
+     * @param seeds Number of seeds in the houses, at most getMaxSeeds() + 1.
+     */
+    public long offset(int seeds) {
+        return offsets[seeds];
+    }
+
+    /**
+     * Returns the rank of the distribution of the seeds in the houses of the given board, among the distributions
+     * of the same number of seeds. The houses of the player to move come first.
+     * @param ks The board, with at most getMaxSeeds() seeds in the houses.
+     */
+    public long rank(KalahState ks) {
+        Player own = ks.getSideToMove();
+        int left = ks.getHouseSum();
+        long rank = 0;
+        for (int i = 0; i < houses - 1 && left > 0; i++) {
+            int seeds = i < boardSize ? ks.getHouse(own, i) : ks.getHouse(own.other(), i - boardSize);
+            rank += before(left, i, seeds);
+            left -= seeds;
+        }
+        return rank;
+    }
+
+    /**
+     * Returns the rank of the given distribution among the distributions of the same number of seeds.
+     * @param distribution Seeds in each of the 2N houses, the houses of the player to move first.
+     * @param seeds Sum of the distribution, at most getMaxSeeds().
+     */
+    public long rank(int[] distribution, int seeds) {
+        int left = seeds;
+        long rank = 0;
+        for (int i = 0; i < houses - 1 && left > 0; i++) {
+            rank += before(left, i, distribution[i]);
+            left -= distribution[i];
+        }
+        return rank;
+    }
+
+    // number of distributions of the seeds left over the houses from i on with less seeds in house i
+    private long before(int left, int i, int seeds) {
+        int k = houses - i;
+        return binomials[left + k - 1][k - 1] - binomials[left - seeds + k - 1][k - 1];
+    }
+
+    /**
+     * Returns the index of the distribution of the seeds in the houses of the given board in a table of all
+     * numbers of seeds, e.g. offset() of its number of seeds plus its rank().
+     * @param ks The board, with at most getMaxSeeds() seeds in the houses.
+     */
+    public long index(KalahState ks) {
+        return offsets[ks.getHouseSum()] + rank(ks);
+    }
+
+    /**
+     * Returns the rank of the given board among all boards with the same number of seeds in the houses and the same
+     * total number of seeds: the store of the player to move times size() plus rank().
+     * Ranks of a total of T seeds, s of them in the houses, range from 0 to (T - s + 1) * size(s) - 1.
+     * @param ks The board, with at most getMaxSeeds() seeds in the houses.
+     */
+    public long rankWithStore(KalahState ks) {
+        int own = ks.getSideToMove() == Player.SOUTH ? ks.getStoreSouth() : ks.getStoreNorth();
+        return own * size(ks.getHouseSum()) + rank(ks);
+    }
+
+    /**
+     * Writes the distribution of the given rank into the given array.
+     * @param rank Rank of the distribution, less than size(seeds).
+     * @param seeds Number of seeds in the houses, at most getMaxSeeds().
+     * @param distribution Receives the seeds in each of the 2N houses, the houses of the player to move first.
+     */
+    public void unrank(long rank, int seeds, int[] distribution) {
+        assert rank >= 0 && rank < size(seeds);
+        int left = seeds;
+        for (int i = 0; i < houses - 1; i++) {
+            int house = house(rank, left, i);
+            rank -= before(left, i, house);
+            left -= house;
+            distribution[i] = house;
+        }
+        distribution[houses - 1] = left;
+    }
+
+    /**
+     * Sets the houses of the given board to the distribution of the given rank, seen from the player to move.
+     * Stores and side to move are left unchanged.
+     * @param rank Rank of the distribution, less than size(seeds).
+     * @param seeds Number of seeds in the houses, at most getMaxSeeds().
+     * @param ks The board to set, of the same board size.
+     */
+    public void unrank(long rank, int seeds, KalahState ks) {
+        assert rank >= 0 && rank < size(seeds);
+        Player own = ks.getSideToMove();
+        int left = seeds;
+        for (int i = 0; i < houses; i++) {
+            int house = left; // the last house holds what's left
+            if (i < houses - 1) {
+                house = house(rank, left, i);
+                rank -= before(left, i, house);
+            }
+            left -= house;
+            if (i < boardSize) {
+                ks.setHouse(own, i, house);
+            } else {
+                ks.setHouse(own.other(), i - boardSize, house);
+            }
+        }
+    }
+
+    /**
+     * Sets houses and stores of the given board to the board of the given rank, see rankWithStore().
+     * The side to move is left unchanged.
+     * @param rank Rank of the board, less than (totalSeeds - seeds + 1) * size(seeds).
+     * @param seeds Number of seeds in the houses, at most getMaxSeeds().
+     * @param totalSeeds Number of seeds in houses and stores.
+     * @param ks The board to set, of the same board size.
+     */
+    public void unrankWithStore(long rank, int seeds, int totalSeeds, KalahState ks) {
+        long size = size(seeds);
+        int own = (int) (rank / size);
+        assert own <= totalSeeds - seeds;
+        unrank(rank % size, seeds, ks);
+        if (ks.getSideToMove() == Player.SOUTH) {
+            ks.setStoreSouth(own);
+            ks.setStoreNorth(totalSeeds - seeds - own);
+        } else {
+            ks.setStoreNorth(own);
+            ks.setStoreSouth(totalSeeds - seeds - own);
+        }
+    }
+
+    // seeds in house i of the distribution of the given rank among the ones of the seeds left over houses i to 2N-1
+    private int house(long rank, int left, int i) {
+        int k = houses - i;
+        int seeds = 0;
+        // distributions with seeds in house i come after those with less
+        long count = binomials[left + k - 2][k - 2];
+        while (rank >= count) {
+            rank -= count;
+            seeds++;
+            count = binomials[left - seeds + k - 2][k - 2];
+        }
+        return seeds;
+    }
+}
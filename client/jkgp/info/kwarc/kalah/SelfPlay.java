@@ -0,0 +1,106 @@
+package info.kwarc.kalah;
+
+import info.kwarc.kalah.KalahState.GameResult;
+import info.kwarc.kalah.KalahState.Player;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Plays games between an engine with the default settings and one with other late move reductions and futility
+ * margins, to tune them. Both engines get the same time per move, so pruning pays off only if the depth it gains
+ * is worth more than the moves it misses. Every position of SearchBenchmark.positions() is played twice,
+ * with each engine moving first once. Games end as soon as their result is decided.
+ * Each engine keeps its own transposition table over all games, starting a new search in it before every move
+ * like MinMaxAgent does.
+ */
+public final class SelfPlay {
+
+    private SelfPlay() {
+    }
+
+    /**
+     * Plays the games and prints the result of the candidate engine.
+     * Arguments (all optional): houses (default 6), seeds per house (default 6), milliseconds per move (default 100),
+     * number of positions (default 20), base and divisor of the reductions (default 0.5 and 2.5, see
+     * SearchEngine.reductionTable()), futility margins by depth, comma separated (default 0,2,6).
+     * @param args Command line arguments.
+     * @throws IOException Never.
+     */
+    public static void main(String[] args) throws IOException {
+        int boardSize = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        int seeds = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        long millis = args.length > 2 ? Long.parseLong(args[2]) : 100;
+        int count = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        double base = args.length > 4 ? Double.parseDouble(args[4]) : 0.5;
+        double divisor = args.length > 5 ? Double.parseDouble(args[5]) : 2.5;
+        int[] margins = args.length > 6 ?
+                Arrays.stream(args[6].split(",")).mapToInt(Integer::parseInt).toArray() :
+                SearchEngine.DEFAULT_FUTILITY_MARGINS;
+
+        long[] deadline = new long[1];
+        TranspositionTable referenceTable = new TranspositionTable(16 << 20);
+        TranspositionTable candidateTable = new TranspositionTable(16 << 20);
+        SearchEngine reference = engine(deadline, referenceTable);
+        SearchEngine candidate = engine(deadline, candidateTable);
+        candidate.setReductions(SearchEngine.reductionTable(base, divisor, 32, 16));
+        candidate.setFutilityMargins(margins);
+
+        System.out.printf("%d positions of %dx%d, %d ms per move, reductions %s / %s, futility margins %s%n",
+                count, boardSize, seeds, millis, base, divisor, Arrays.toString(margins));
+
+        int wins = 0, draws = 0, losses = 0;
+        ArrayList<KalahState> positions = SearchBenchmark.positions(boardSize, seeds, count, 1);
+        for (KalahState position : positions) {
+            for (int game = 0; game < 2; game++) {
+                // the candidate moves first in the first game
+                Player side = game == 0 ? position.getSideToMove() : position.getSideToMove().other();
+                int score = play(position, candidate, candidateTable, reference, referenceTable, side, millis,
+                        deadline);
+                if (score > 0) {
+                    wins++;
+                } else if (score == 0) {
+                    draws++;
+                } else {
+                    losses++;
+                }
+            }
+        }
+
+        // expected score and the Elo difference matching it
+        double points = (wins + 0.5 * draws) / (wins + draws + losses);
+        double elo = points <= 0 || points >= 1 ? Double.NaN : -400 * Math.log10(1 / points - 1);
+        System.out.printf("candidate: %d wins, %d draws, %d losses, %.1f%%, %+.0f Elo%n",
+                wins, draws, losses, 100 * points, elo);
+    }
+
+    // an engine with the given table, aborting at the deadline
+    private static SearchEngine engine(long[] deadline, TranspositionTable tt) {
+        SearchEngine engine = new SearchEngine(() -> System.nanoTime() > deadline[0]);
+        engine.setTranspositionTable(tt);
+        return engine;
+    }
+
+    // plays a game from the given position, returns the result for the candidate: 1 win, 0 draw, -1 loss
+    private static int play(KalahState position, SearchEngine candidate, TranspositionTable candidateTable,
+                            SearchEngine reference, TranspositionTable referenceTable, Player side,
+                            long millis, long[] deadline) throws IOException {
+        KalahState ks = new KalahState(position);
+        while (ks.result() == GameResult.UNDECIDED) {
+            int[] best = {ks.lowestLegalMove()};
+            deadline[0] = System.nanoTime() + millis * 1_000_000;
+            boolean candidateMoves = ks.getSideToMove() == side;
+            SearchEngine engine = candidateMoves ? candidate : reference;
+            TranspositionTable tt = candidateMoves ? candidateTable : referenceTable;
+            tt.newSearch();
+            engine.iterate(ks, 1, TranspositionTable.MAX_DEPTH, (depth, score, move) -> best[0] = move);
+            ks.doMove(best[0]);
+        }
+
+        GameResult result = ks.result();
+        int score = result == GameResult.WIN || result == GameResult.KNOWN_WIN ? 1 :
+                result == GameResult.LOSS || result == GameResult.KNOWN_LOSS ? -1 : 0;
+        return ks.getSideToMove() == side ? score : -score;
+    }
+}
@@ -0,0 +1,92 @@
+package info.kwarc.kalah;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed outcome of sowing a given number of seeds from a given house, for one board size.
+ * Tables are built once per board size and shared by all KalahState instances of that size.
+ * Pits are indexed relative to the player to move: own houses 0 to N-1, own store N,
+ * houses of the other player N+1 to 2N (the store of the other player is never sowed into).
+ */
+final class SowingTable {
+
+    // layout of an entry
+    private static final int LANDING_MASK = 0xFFFF; // bits 0-15: pit of the last seed
+    private static final int LAPS_SHIFT = 16; // bits 16-27: number of full laps
+    private static final int LAPS_MASK = 0xFFF;
+    static final int EXTRA_TURN = 1 << 28; // last seed in own store
+    static final int CAPTURE_CANDIDATE = 1 << 29; // capture if the landing house is empty and the opposite one isn't
+    static final int PASSES_OPPOSITE = 1 << 30; // a seed is sowed into the opposite house before landing
+    static final int CAPTURE_SURE = 1 << 31; // a full lap ending in the emptied starting house, always a capture
+
+    // seed counts covered by the table in multiples of laps, larger counts are computed on demand
+    private static final int LAPS_COVERED = 4;
+
+    private static final ConcurrentHashMap<Integer, SowingTable> tables = new ConcurrentHashMap<>();
+
+    private final int boardSize;
+    private final int maxSeeds;
+    private final int[] entries;
+
+    private SowingTable(int boardSize) {
+        this.boardSize = boardSize;
+        this.maxSeeds = LAPS_COVERED * (2 * boardSize + 1);
+        this.entries = new int[boardSize * (maxSeeds + 1)];
+        for (int house = 0; house < boardSize; house++) {
+            for (int seeds = 0; seeds <= maxSeeds; seeds++) {
+                entries[house * (maxSeeds + 1) + seeds] = compute(boardSize, house, seeds);
+            }
+        }
+    }
+
+    /**
+     * Returns the shared table for the given board size.
+     * @param boardSize Number of houses per player.
+     */
+    static SowingTable forBoardSize(int boardSize) {
+        return tables.computeIfAbsent(boardSize, SowingTable::new);
+    }
+
+    /**
+     * Returns the entry for sowing the given number of seeds from the given house.
+     * @param house House of the player to move, from 0 to N-1.
+     * @param seeds Number of seeds in the house.
+     */
+    int entry(int house, int seeds) {
+        if (seeds <= maxSeeds) {
+            return entries[house * (maxSeeds + 1) + seeds];
+        } else {
+            return compute(boardSize, house, seeds);
+        }
+    }
+
+    /** Returns the pit the last seed of the entry ends up in, relative to the player to move. */
+    static int landing(int entry) {
+        return entry & LANDING_MASK;
+    }
+
+    /** Returns the number of full laps around the board of the entry, capped at 4095. */
+    static int laps(int entry) {
+        return (entry >>> LAPS_SHIFT) & LAPS_MASK;
+    }
+
+    private static int compute(int boardSize, int house, int seeds) {
+        int cycle = 2 * boardSize + 1;
+        int landing = (house + seeds) % cycle;
+        int laps = seeds / cycle;
+
+        int entry = landing | Math.min(laps, LAPS_MASK) << LAPS_SHIFT;
+        if (landing == boardSize) {
+            entry |= EXTRA_TURN;
+        }
+        if (seeds == cycle) {
+            entry |= CAPTURE_CANDIDATE | CAPTURE_SURE;
+        } else if (seeds < cycle && landing < boardSize) {
+            entry |= CAPTURE_CANDIDATE;
+        }
+        if (house + seeds >= boardSize) {
+            entry |= PASSES_OPPOSITE;
+        }
+        return entry;
+    }
+}
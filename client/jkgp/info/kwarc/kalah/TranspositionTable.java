@@ -0,0 +1,191 @@
+package info.kwarc.kalah;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size hash table of search results, indexed by KalahState.zobristKey().
+ * Entries are stored in a single long[] without any per-entry objects, two longs per entry:
+ * the key xor the data and the data itself. Threads read and write without locks, an entry whose
+ * key doesn't match after undoing the xor has been torn by concurrent writes and is treated as missing.
+ * Entries are grouped into buckets of four, which fill one cache line. A new entry replaces the entry of the same
+ * position unless that one is proven or deeper and of the current search, otherwise the one with the lowest depth,
+ * preferring entries from older searches. Each search should start with newSearch(), so entries of earlier
+ * searches and games age out without clearing the table.
+ */
+public final class TranspositionTable {
+
+    /** Bound type of a score which is a lower bound of the real score (fail high). */
+    public static final int LOWER = 1;
+
+    /** Bound type of a score which is an upper bound of the real score (fail low). */
+    public static final int UPPER = 2;
+
+    /** Bound type of an exact score. */
+    public static final int EXACT = 3;
+
+    /** Greatest depth which can be stored, deeper results are stored with this depth. */
+    public static final int MAX_DEPTH = 0xFF;
+
+    /** Depth of results which hold for any depth, e.g. scores proven by searching to the end of the game. */
+    public static final int PROVEN = MAX_DEPTH;
+
+    private static final int ENTRIES_PER_BUCKET = 4;
+    private static final int LONGS_PER_BUCKET = 2 * ENTRIES_PER_BUCKET;
+
+    // layout of the data of an entry:
+    // bits 0-31 score, bits 32-39 depth, bits 40-41 bound type, bits 42-47 generation, bits 48-63 move + 1 (0 if none)
+    // the bound type is never 0, so neither is the data of an occupied entry
+    private static final int DEPTH_SHIFT = 32;
+    private static final int BOUND_SHIFT = 40;
+    private static final int GENERATION_SHIFT = 42;
+    private static final int GENERATION_MASK = 0x3F;
+    private static final int MOVE_SHIFT = 48;
+
+    private final long[] table;
+    private final int bucketMask;
+    private int generation;
+
+    /**
+     * Creates an empty table using at most the given number of bytes, rounded down to a power of 2.
+     * @param bytes Memory budget of the table, at least 64 bytes.
+     */
+    public TranspositionTable(long bytes) {
+        // arrays are indexed by int
+        long buckets = Math.min(bytes / (8 * LONGS_PER_BUCKET), Integer.MAX_VALUE / LONGS_PER_BUCKET);
+        buckets = Long.highestOneBit(Math.max(buckets, 1));
+        table = new long[(int) buckets * LONGS_PER_BUCKET];
+        bucketMask = (int) buckets - 1;
+    }
+
+    /** Returns the number of entries the table can hold. */
+    public int capacity() {
+        return table.length / 2;
+    }
+
+    /**
+     * Starts a new search, entries of earlier searches are replaced first from now on.
+     * Call it before a search, not during one.
+     */
+    public void newSearch() {
+        generation = (generation + 1) & GENERATION_MASK;
+    }
+
+    /** Removes all entries. Not needed between games, see newSearch(). */
+    public void clear() {
+        Arrays.fill(table, 0);
+    }
+
+    // index of the first long of the bucket of the given key
+    private int bucket(long key) {
+        // the lowest bits select the bucket, mixed with the highest ones so keys differing in a few bits spread out
+        return ((int) (key ^ (key >>> 32)) & bucketMask) * LONGS_PER_BUCKET;
+    }
+
+    /**
+     * Returns the entry of the given position or 0 if there is none.
+     * Use score(), depth(), bound() and move() to read the entry.
+     * @param key Zobrist key of the position.
+     */
+    public long probe(long key) {
+        int b = bucket(key);
+        for (int i = b; i < b + LONGS_PER_BUCKET; i += 2) {
+            long data = table[i + 1];
+            if ((table[i] ^ data) == key && data != 0) {
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Stores a search result, replacing the entry of the same position or the least valuable entry of its bucket.
+     * If the entry of the same position is proven, or deeper and stored during the current search, only its move
+     * is replaced.
+     * @param key Zobrist key of the position.
+     * @param depth Depth the position has been searched to, capped at MAX_DEPTH.
+     * @param bound Bound type of the score, LOWER, UPPER or EXACT.
+     * @param score The score.
+     * @param move Best move or -1 if unknown. Moves are indexed from 0 to N-1 in sowing direction.
+     */
+    public void store(long key, int depth, int bound, int score, int move) {
+        assert bound == LOWER || bound == UPPER || bound == EXACT;
+        assert depth >= 0 && move >= -1 && move < 0xFFFF;
+
+        int b = bucket(key);
+        int victim = b;
+        int victimValue = Integer.MAX_VALUE;
+        for (int i = b; i < b + LONGS_PER_BUCKET; i += 2) {
+            long data = table[i + 1];
+            if (data != 0 && (table[i] ^ data) == key) {
+                // same position: a proven result or a deeper one of this search is worth more, only refresh its move
+                int old = depth(data);
+                if (old == PROVEN && depth < PROVEN || old > depth && generation(data) == generation) {
+                    if (move >= 0) {
+                        data = data & ~(0xFFFFL << MOVE_SHIFT) | (long) (move + 1) << MOVE_SHIFT;
+                        table[i] = key ^ data;
+                        table[i + 1] = data;
+                    }
+                    return;
+                }
+                // keep its move if the new result has none
+                if (move < 0) {
+                    move = move(data);
+                }
+                victim = i;
+                break;
+            }
+            // empty entries are worth nothing, shallow entries of old searches the least
+            int age = (generation - generation(data)) & GENERATION_MASK;
+            int value = data == 0 ? Integer.MIN_VALUE : depth(data) - 8 * age;
+            if (value < victimValue) {
+                victim = i;
+                victimValue = value;
+            }
+        }
+
+        long data = (score & 0xFFFFFFFFL) |
+                (long) Math.min(depth, MAX_DEPTH) << DEPTH_SHIFT |
+                (long) bound << BOUND_SHIFT |
+                (long) generation << GENERATION_SHIFT |
+                (long) (move + 1) << MOVE_SHIFT;
+        table[victim] = key ^ data;
+        table[victim + 1] = data;
+    }
+
+    /** Returns the score of an entry. */
+    public static int score(long entry) {
+        return (int) entry;
+    }
+
+    /** Returns the depth of an entry. */
+    public static int depth(long entry) {
+        return (int) (entry >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    /** Returns the bound type of an entry, LOWER, UPPER or EXACT. */
+    public static int bound(long entry) {
+        return (int) (entry >>> BOUND_SHIFT) & 0x3;
+    }
+
+    /** Returns the best move of an entry or -1 if unknown. */
+    public static int move(long entry) {
+        return (int) (entry >>> MOVE_SHIFT) - 1;
+    }
+
+    private static int generation(long entry) {
+        return (int) (entry >>> GENERATION_SHIFT) & GENERATION_MASK;
+    }
+
+    /** Returns the approximate fill rate of the table by the current search, in entries per thousand. */
+    public int hashfull() {
+        int used = 0;
+        int sample = Math.min(1000, capacity());
+        for (int i = 0; i < sample; i++) {
+            long data = table[2 * i + 1];
+            if (data != 0 && generation(data) == generation) {
+                used++;
+            }
+        }
+        return used * 1000 / sample;
+    }
+}
@@ -0,0 +1,419 @@
+package info.kwarc.kalah;
+
+import info.kwarc.kalah.KalahState.Player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Parallel alpha-beta search following the Young Brothers Wait Concept: at every node far enough from the leaves
+ * the first move (the eldest brother) is searched on its own, since it is likely to cause a cutoff. Only then the
+ * remaining moves (the younger brothers) are searched in parallel as tasks of a work-stealing ForkJoinPool,
+ * each on its own copy of the board. When one of them causes a cutoff, the search of its siblings is cancelled.
+ * Nodes close to the leaves are searched serially by a SearchEngine of the worker thread, making and undoing moves.
+ * Scores, depths and iterate() are the same as for SearchEngine, the search itself is just spread over threads.
+ * The settings of the search apply to the engines of all worker threads. Split nodes search their moves without
+ * late move reductions though, so with reductions the scores may differ from the ones of SearchEngine.
+ * Like SearchEngine, every node counts the scores below it based on the horizon, adding up the counts of the
+ * threads searching its moves, and results without any are proven.
+ */
+public class YbwcSearch extends SearchEngine {
+
+    // nodes with less remaining depth are searched serially, splitting them costs more than it saves
+    private static final int MIN_SPLIT_DEPTH = 5;
+
+    private final BooleanSupplier stop;
+    private final ForkJoinPool pool;
+    private TranspositionTable tt;
+    private EndgameDatabase endgame;
+    private int quiescenceNodeLimit = DEFAULT_QUIESCENCE_NODE_LIMIT;
+    private int[][] reductions = DEFAULT_REDUCTIONS;
+    private int[] futilityMargins = DEFAULT_FUTILITY_MARGINS;
+    private long perturbation;
+
+    // one engine for the serial searches of each worker thread
+    private final ThreadLocal<Worker> worker;
+    private final List<Worker> workers;
+
+    private volatile boolean aborted;
+    private int bestMove;
+
+    /**
+     * Creates a search using the given number of threads.
+     * @param stop Stop condition, e.g. Agent.shouldStop(), has to be thread-safe.
+     * @param threads Number of threads of the pool searching in parallel.
+     */
+    public YbwcSearch(BooleanSupplier stop, int threads) {
+        super(stop);
+        this.stop = stop;
+        this.pool = new ForkJoinPool(threads);
+        this.workers = new CopyOnWriteArrayList<>();
+        this.worker = ThreadLocal.withInitial(() -> {
+            Worker w = new Worker();
+            workers.add(w);
+            return w;
+        });
+    }
+
+    @Override
+    public void setQuiescenceNodeLimit(int limit) {
+        quiescenceNodeLimit = limit;
+        configureWorkers();
+    }
+
+    @Override
+    public void setReductions(int[][] reductions) {
+        this.reductions = reductions;
+        configureWorkers();
+    }
+
+    @Override
+    public void setFutilityMargins(int[] margins) {
+        futilityMargins = margins;
+        configureWorkers();
+    }
+
+    @Override
+    public void setTranspositionTable(TranspositionTable tt) {
+        this.tt = tt;
+        configureWorkers();
+    }
+
+    @Override
+    public void setEndgameDatabase(EndgameDatabase endgame) {
+        this.endgame = endgame;
+        configureWorkers();
+    }
+
+    @Override
+    public void setOrderingPerturbation(long seed) {
+        perturbation = seed;
+        configureWorkers();
+    }
+
+    // passes the settings to the engines of the worker threads, the ones created later get them from Worker()
+    private void configureWorkers() {
+        for (Worker w : workers) {
+            configure(w.engine);
+        }
+    }
+
+    // gives an engine of a worker thread all settings of this search
+    private void configure(SearchEngine engine) {
+        engine.setQuiescenceNodeLimit(quiescenceNodeLimit);
+        engine.setReductions(reductions);
+        engine.setFutilityMargins(futilityMargins);
+        engine.setTranspositionTable(tt);
+        engine.setEndgameDatabase(endgame);
+        engine.setOrderingPerturbation(perturbation);
+    }
+
+    @Override
+    public int search(KalahState ks, int depth, int alpha, int beta) {
+        assert depth >= 1 && alpha < beta;
+
+        aborted = false;
+        bestMove = ks.lowestLegalMove();
+        Task root = new Task(new KalahState(ks), 0, depth, alpha, beta, new Node(null));
+        int score = pool.invoke(root);
+        finishSearch(score, alpha, beta, root.guesses[0] == 0);
+        return score;
+    }
+
+    @Override
+    public int getBestMove() {
+        return bestMove;
+    }
+
+    @Override
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /** Returns the number of nodes searched so far by all threads together, over all searches. */
+    @Override
+    public long getNodes() {
+        long sum = 0;
+        for (Worker w : workers) {
+            sum += w.nodes();
+        }
+        return sum;
+    }
+
+    /** Returns the number of moves searched again after failing high on a null window so far, by all threads. */
+    @Override
+    public long getPvsResearches() {
+        long sum = super.getPvsResearches();
+        for (Worker w : workers) {
+            sum += w.engine.getPvsResearches();
+        }
+        return sum;
+    }
+
+    /** Returns the number of reduced moves searched again with full depth so far, by all threads. */
+    @Override
+    public long getLmrResearches() {
+        long sum = super.getLmrResearches();
+        for (Worker w : workers) {
+            sum += w.engine.getLmrResearches();
+        }
+        return sum;
+    }
+
+    /** Returns the number of quiet moves skipped by futility pruning so far, by all threads. */
+    @Override
+    public long getFutilityPrunes() {
+        long sum = super.getFutilityPrunes();
+        for (Worker w : workers) {
+            sum += w.engine.getFutilityPrunes();
+        }
+        return sum;
+    }
+
+    /** Returns the number of nodes searched so far by each thread, over all searches. */
+    public long[] getNodesPerThread() {
+        long[] nodes = new long[workers.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = workers.get(i).nodes();
+        }
+        return nodes;
+    }
+
+    // Search of the node on the given board from the point of view of the player to move,
+    // the board is unchanged afterwards. Returns 0 if the search has been aborted or the node cancelled.
+    // Adds the number of scores based on the horizon to guesses[0], which only the calling thread writes.
+    private int ybwc(KalahState board, int ply, int depth, int alpha, int beta, Node node, long[] guesses) {
+        Worker w = worker.get();
+        if (depth < MIN_SPLIT_DEPTH && ply > 0) {
+            return w.serial(board, ply, depth, alpha, beta, node, guesses);
+        }
+
+        w.splitNodes++;
+        if (aborted || node.isCancelled()) {
+            return 0;
+        }
+        if (stop.getAsBoolean()) {
+            aborted = true;
+            return 0;
+        }
+
+        // final score and its bounds, see SearchEngine
+        int lead = board.getStoreLead();
+        if (isOver(board.result())) {
+            return lead;
+        }
+        int seeds = board.getHouseSum();
+        if (ply > 0) {
+            if (endgame != null) {
+                int value = endgame.value(board);
+                if (value != EndgameDatabase.NOT_FOUND) {
+                    return lead + value;
+                }
+            }
+            if (lead - seeds >= beta) {
+                return lead - seeds;
+            }
+            if (lead + seeds <= alpha) {
+                return lead + seeds;
+            }
+            alpha = Math.max(alpha, lead - seeds);
+            beta = Math.min(beta, lead + seeds);
+        }
+
+        // has the position been searched deep enough before?
+        long key = board.zobristKey();
+        int hashMove = -1;
+        if (tt != null) {
+            long entry = tt.probe(key);
+            if (entry != 0) {
+                hashMove = TranspositionTable.move(entry);
+                if (ply > 0 && TranspositionTable.depth(entry) >= depth) {
+                    int score = TranspositionTable.score(entry);
+                    int bound = TranspositionTable.bound(entry);
+                    if (bound == TranspositionTable.EXACT ||
+                            bound == TranspositionTable.LOWER && score >= beta ||
+                            bound == TranspositionTable.UPPER && score <= alpha) {
+                        if (TranspositionTable.depth(entry) != TranspositionTable.PROVEN) {
+                            guesses[0]++;
+                        }
+                        return score;
+                    }
+                }
+            }
+        }
+        if (hashMove >= board.getBoardSize() || hashMove >= 0 && !board.isLegalMove(hashMove)) {
+            hashMove = -1;
+        }
+
+        // split nodes are few, so they may allocate
+        MoveList moves = new MoveList(board.getBoardSize());
+        board.getMoves(moves);
+        w.ordering(board.getBoardSize()).order(board, moves, hashMove, ply);
+        Player player = board.getSideToMove();
+
+        int alphaOrig = alpha;
+        long guessesBefore = guesses[0];
+
+        // eldest brother
+        int first = moves.get(0);
+        long undo = board.doMove(first);
+        boolean extraTurn = board.getSideToMove() == player;
+        int best = extraTurn ?
+                ybwc(board, ply + 1, depth - 1, alpha, beta, node, guesses) :
+                -ybwc(board, ply + 1, depth - 1, -beta, -alpha, node, guesses);
+        board.undoMove(undo);
+        if (aborted || node.isCancelled()) {
+            return 0;
+        }
+        int bestHere = first;
+        if (ply == 0) {
+            bestMove = first;
+        }
+        alpha = Math.max(alpha, best);
+
+        // younger brothers, in parallel with the window known after the eldest one
+        if (alpha < beta && moves.size() > 1) {
+            Node siblings = new Node(node);
+            ArrayList<Task> tasks = new ArrayList<>(moves.size() - 1);
+            boolean[] negate = new boolean[moves.size()];
+            for (int i = 1; i < moves.size(); i++) {
+                KalahState child = new KalahState(board);
+                child.doMove(moves.get(i));
+                negate[i] = child.getSideToMove() != player;
+                tasks.add(negate[i] ?
+                        new Task(child, ply + 1, depth - 1, -beta, -alpha, siblings) :
+                        new Task(child, ply + 1, depth - 1, alpha, beta, siblings));
+            }
+            for (int i = tasks.size() - 1; i >= 0; i--) {
+                tasks.get(i).fork();
+            }
+
+            for (int i = 1; i < moves.size(); i++) {
+                Task task = tasks.get(i - 1);
+                int score = task.join();
+                if (aborted || node.isCancelled() || siblings.cancelled) {
+                    continue; // results are meaningless, but all tasks are joined before returning
+                }
+                guesses[0] += task.guesses[0];
+                if (negate[i]) {
+                    score = -score;
+                }
+                if (score > best) {
+                    best = score;
+                    bestHere = moves.get(i);
+                    if (ply == 0) {
+                        bestMove = bestHere;
+                    }
+                    if (best > alpha) {
+                        alpha = best;
+                        if (alpha >= beta) {
+                            siblings.cancelled = true; // cutoff, the remaining siblings aren't needed
+                        }
+                    }
+                }
+            }
+            if (aborted || node.isCancelled()) {
+                return 0;
+            }
+        }
+
+        if (tt != null) {
+            // a result without guesses holds for any depth
+            int stored = guesses[0] == guessesBefore ?
+                    TranspositionTable.PROVEN : Math.min(depth, TranspositionTable.PROVEN - 1);
+            if (best <= alphaOrig) {
+                tt.store(key, stored, TranspositionTable.UPPER, best, -1);
+            } else {
+                int bound = best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+                tt.store(key, stored, bound, best, bestHere);
+            }
+        }
+        return best;
+    }
+
+    // A node with moves searched in parallel, cancelling it cancels the searches below it
+    private static final class Node {
+        private final Node parent;
+        private volatile boolean cancelled;
+
+        Node(Node parent) {
+            this.parent = parent;
+        }
+
+        boolean isCancelled() {
+            for (Node n = this; n != null; n = n.parent) {
+                if (n.cancelled) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // search of one node on its own board
+    private final class Task extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final KalahState board;
+        private final int ply, depth, alpha, beta;
+        private final Node node;
+        private final long[] guesses = new long[1]; // of the search of the node, read after join()
+
+        Task(KalahState board, int ply, int depth, int alpha, int beta, Node node) {
+            this.board = board;
+            this.ply = ply;
+            this.depth = depth;
+            this.alpha = alpha;
+            this.beta = beta;
+            this.node = node;
+        }
+
+        @Override
+        protected Integer compute() {
+            return ybwc(board, ply, depth, alpha, beta, node, guesses);
+        }
+    }
+
+    // state of a worker thread
+    private final class Worker {
+        private final SearchEngine engine;
+        private Node node; // node of the current serial search, to notice its cancellation
+        private long splitNodes;
+
+        Worker() {
+            engine = new SearchEngine(() -> aborted || stop.getAsBoolean() || node.isCancelled());
+            configure(engine);
+        }
+
+        int serial(KalahState board, int ply, int depth, int alpha, int beta, Node node, long[] guesses) {
+            if (aborted || node.isCancelled()) {
+                return 0;
+            }
+            this.node = node;
+            long before = engine.getGuesses();
+            int score = engine.searchNode(board, ply, depth, alpha, beta);
+            if (engine.isAborted() && !node.isCancelled()) {
+                aborted = true;
+            }
+            guesses[0] += engine.getGuesses() - before;
+            return score;
+        }
+
+        MoveOrdering ordering(int boardSize) {
+            MoveOrdering ordering = engine.getMoveOrdering();
+            if (ordering == null || ordering.getBoardSize() != boardSize) {
+                // created by the first serial search
+                return new MoveOrdering(boardSize);
+            }
+            return ordering;
+        }
+
+        long nodes() {
+            return engine.getNodes() + splitNodes;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package info.kwarc.kalah;
+
+/**
+ * Random numbers for the Zobrist keys of KalahState, see KalahState.zobristKey().
+ * Pits are numbered from South's point of view: southern houses 0 to N-1, southern store N,
+ * northern houses N+1 to 2N and northern store 2N+1.
+ * The numbers are derived from a fixed seed by a pure function, so keys are the same on every JVM
+ * and can be persisted.
+ */
+final class Zobrist {
+
+    // changing this invalidates all persisted keys
+    private static final long SEED = 0x4B616C6168L; // "Kalah"
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    // numbers for small pit indices and seed counts are cached, the rest is computed on demand
+    private static final int TABLE_PITS = 2 * 16 + 2;
+    private static final int TABLE_SEEDS = 64;
+    private static final long[] TABLE = new long[TABLE_PITS * TABLE_SEEDS];
+
+    /** Number to xor into the key if North is to move. */
+    static final long NORTH_TO_MOVE = compute(-1, -1);
+
+    static {
+        for (int pit = 0; pit < TABLE_PITS; pit++) {
+            for (int seeds = 1; seeds < TABLE_SEEDS; seeds++) {
+                TABLE[pit * TABLE_SEEDS + seeds] = compute(pit, seeds);
+            }
+        }
+    }
+
+    private Zobrist() {
+    }
+
+    /**
+     * Returns the number for the given pit holding the given number of seeds, 0 for an empty pit.
+     * @param pit Index of the pit, see class description.
+     * @param seeds Number of seeds in the pit.
+     */
+    static long pit(int pit, int seeds) {
+        if (seeds == 0) {
+            return 0;
+        } else if (pit < TABLE_PITS && seeds < TABLE_SEEDS) {
+            return TABLE[pit * TABLE_SEEDS + seeds];
+        } else {
+            return compute(pit, seeds);
+        }
+    }
+
+    // SplitMix64 applied to the pair (pit, seeds)
+    private static long compute(int pit, int seeds) {
+        long z = SEED + GOLDEN_GAMMA * (((long) pit << 32 | (seeds & 0xFFFFFFFFL)) + 1);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}